@@ -0,0 +1,74 @@
+/*
+ * Part of DCSteg steganographic/watermarking utility.
+ * Distributed under GPL v2 license.
+ */
+package Stegano.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Stegano.Block8x8;
+import Stegano.DCTEngine;
+
+/**
+ * Forward and inverse DCT of one 8x8 block by each engine
+ * ({@link Block8x8#engineByName}).
+ *
+ * @author Ondrej Mikle
+ * @version 0.1
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DctBenchmark
+{
+    @Param( { "aan", "reference" })
+    public String engine;
+
+    private DCTEngine dct;
+
+    private final double[] input = new double[64], block = new double[64],
+                    scratch = new double[64];
+
+    @Setup
+    public void setup()
+    {
+        Random r = new Random(42);
+
+        dct = Block8x8.engineByName(engine);
+        for (int i = 0; i < 64; i++)
+            input[i] = r.nextInt(256);
+    }
+
+    @Benchmark
+    public double[] forward()
+    {
+        System.arraycopy(input, 0, block, 0, 64);
+        dct.forward(block, scratch);
+        return block;
+    }
+
+    @Benchmark
+    public double[] forwardReverse()
+    {
+        System.arraycopy(input, 0, block, 0, 64);
+        dct.forward(block, scratch);
+        dct.reverse(block, scratch);
+        return block;
+    }
+}
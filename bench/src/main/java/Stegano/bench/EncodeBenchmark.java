@@ -0,0 +1,80 @@
+/*
+ * Part of DCSteg steganographic/watermarking utility.
+ * Distributed under GPL v2 license.
+ */
+package Stegano.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Stegano.BlockRows;
+import Stegano.DCSteg;
+import Stegano.EndOfMediumException;
+
+/**
+ * End-to-end {@link DCSteg#Encode} of synthetic png images: reading,
+ * transform, imprint, reverse transform and writing png. Images over
+ * {@link Stegano.StripProcessor#AUTO_PIXELS} go through strip streaming
+ * as in normal use. Input files are generated once into the temporary
+ * directory.
+ *
+ * @author Ondrej Mikle
+ * @version 0.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class EncodeBenchmark
+{
+    @Param( { "1", "10", "100" })
+    public int megapixels;
+
+    /**
+     * Number of threads, 0 means all processors.
+     */
+    @Param( { "1", "0" })
+    public int threads;
+
+    private File in, out;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, InterruptedException
+    {
+        BlockRows.setParallelism((threads > 0) ? threads : Runtime
+                        .getRuntime().availableProcessors());
+        in = SyntheticImages.png(megapixels);
+        out = File.createTempFile("dcsteg-bench-out", ".png");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        out.delete();
+    }
+
+    @Benchmark
+    public void encode() throws IOException, InterruptedException,
+                    EndOfMediumException
+    {
+        DCSteg.Encode(in.getPath(), out.getPath(), 0,
+                        "DCSteg benchmark message");
+    }
+}
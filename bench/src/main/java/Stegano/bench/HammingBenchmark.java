@@ -0,0 +1,76 @@
+/*
+ * Part of DCSteg steganographic/watermarking utility.
+ * Distributed under GPL v2 license.
+ */
+package Stegano.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Stegano.BitBuffer;
+import Stegano.HammingCode;
+
+/**
+ * Hamming(7,4) encoding and decoding of ASCII messages.
+ *
+ * @author Ondrej Mikle
+ * @version 0.1
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HammingBenchmark
+{
+    /**
+     * Message length in bytes.
+     */
+    @Param( { "64", "4096" })
+    public int length;
+
+    private String msg;
+
+    private BitBuffer code;
+
+    @Setup
+    public void setup()
+    {
+        Random r = new Random(42);
+        char[] c = new char[length];
+
+        for (int i = 0; i < length; i++)
+            c[i] = (char) (32 + r.nextInt(95));
+        msg = new String(c);
+
+        code = HammingCode.Encode(msg);
+        // one error in every fourth codeword, so correction is exercised
+        for (int i = 0; i < code.size(); i += 28)
+            code.set(i, !code.get(i));
+    }
+
+    @Benchmark
+    public BitBuffer encode()
+    {
+        return HammingCode.Encode(msg);
+    }
+
+    @Benchmark
+    public String decode()
+    {
+        return HammingCode.Decode(code);
+    }
+}
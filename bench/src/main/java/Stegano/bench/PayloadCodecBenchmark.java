@@ -0,0 +1,90 @@
+/*
+ * Part of DCSteg steganographic/watermarking utility.
+ * Distributed under GPL v2 license.
+ */
+package Stegano.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Stegano.BitBuffer;
+import Stegano.EndOfMediumException;
+import Stegano.PayloadCodec;
+import Stegano.StegCodec;
+
+/**
+ * Payload encoding and decoding by the frame codecs, Hamming(7,4) against
+ * Reed-Solomon(255,223), on random payloads.
+ *
+ * @author Ondrej Mikle
+ * @version 0.1
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PayloadCodecBenchmark
+{
+    /**
+     * Codec name, see {@link StegCodec#codecByName}.
+     */
+    @Param( { "hamming", "rs" })
+    public String codec;
+
+    /**
+     * Payload length in bytes.
+     */
+    @Param( { "64", "4096" })
+    public int length;
+
+    private PayloadCodec c;
+
+    private byte[] data;
+
+    private BitBuffer code;
+
+    @Setup
+    public void setup()
+    {
+        Random r = new Random(42);
+
+        c = StegCodec.codecByName(codec);
+        data = new byte[length];
+        r.nextBytes(data);
+
+        code = new BitBuffer(c.codedBits(length));
+        c.encodePayload(data, code);
+        // one error in every 256 medium bits, both codecs correct all of them
+        for (int i = 0; i < code.size(); i += 256)
+            code.set(i, !code.get(i));
+    }
+
+    @Benchmark
+    public BitBuffer encode()
+    {
+        BitBuffer out = new BitBuffer(c.codedBits(length));
+
+        c.encodePayload(data, out);
+        return out;
+    }
+
+    @Benchmark
+    public byte[] decode() throws EndOfMediumException
+    {
+        return c.decodePayload(code.source(), length);
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Part of DCSteg steganographic/watermarking utility.
+ * Distributed under GPL v2 license.
+ */
+package Stegano.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Stegano.Block8x8;
+
+/**
+ * Quantization of one transformed 8x8 block by {@link Block8x8#qt50}, in
+ * place and allocating.
+ *
+ * @author Ondrej Mikle
+ * @version 0.1
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QuantizeBenchmark
+{
+    private final Block8x8 coefs = new Block8x8(), work = new Block8x8();
+
+    @Setup
+    public void setup()
+    {
+        Random r = new Random(42);
+
+        for (int i = 0; i < 64; i++)
+            coefs.data[i] = r.nextGaussian() * 100;
+    }
+
+    @Benchmark
+    public Block8x8 quantizeInPlace()
+    {
+        Block8x8.qt50.quantize(coefs, work);
+        Block8x8.qt50.dequantize(work, work);
+        return work;
+    }
+
+    @Benchmark
+    public Block8x8 quantizeAllocating()
+    {
+        return Block8x8.qt50.dequantize(Block8x8.qt50.quantize(coefs));
+    }
+}
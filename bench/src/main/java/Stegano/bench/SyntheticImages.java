@@ -0,0 +1,140 @@
+/*
+ * Part of DCSteg steganographic/watermarking utility.
+ * Distributed under GPL v2 license.
+ */
+package Stegano.bench;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import Stegano.PngStripWriter;
+import Stegano.RGBImage;
+
+/**
+ * Deterministic synthetic test images: smooth sine pattern (so that blocks
+ * have a spread of DC values like a photo) with hashed per-pixel noise. The
+ * pixel value depends only on its coordinates, so every run and every strip
+ * of a large image gets the same pixels. Images have 4:3 aspect ratio,
+ * dimensions are multiples of 8.
+ *
+ * @author Ondrej Mikle
+ * @version 0.1
+ */
+public final class SyntheticImages
+{
+    /**
+     * Rows generated at once when writing png files.
+     */
+    private static final int STRIP = 256;
+
+    private SyntheticImages()
+    {
+    }
+
+    /**
+     * Returns image width for given size.
+     *
+     * @param megapixels image size in millions of pixels
+     */
+    public static int width(int megapixels)
+    {
+        return (int) Math.round(Math.sqrt(megapixels * 1e6 * 4 / 3) / 8) * 8;
+    }
+
+    /**
+     * Returns image height for given size.
+     *
+     * @param megapixels image size in millions of pixels
+     */
+    public static int height(int megapixels)
+    {
+        return (int) Math.round(megapixels * 1e6 / width(megapixels) / 8) * 8;
+    }
+
+    /**
+     * Creates rows of the image.
+     *
+     * @param megapixels image size
+     * @param y0 first row
+     * @param rows number of rows
+     */
+    public static RGBImage rows(int megapixels, int y0, int rows)
+                    throws InterruptedException
+    {
+        int wid = width(megapixels);
+        BufferedImage img = new BufferedImage(wid, rows,
+                        BufferedImage.TYPE_INT_RGB);
+        int[] data = ((DataBufferInt) img.getRaster().getDataBuffer())
+                        .getData();
+
+        for (int y = 0, i = 0; y < rows; y++)
+            for (int x = 0; x < wid; x++, i++)
+                data[i] = pixel(x, y0 + y);
+        return new RGBImage(img);
+    }
+
+    /**
+     * Creates the whole image.
+     *
+     * @param megapixels image size
+     */
+    public static RGBImage create(int megapixels) throws InterruptedException
+    {
+        return rows(megapixels, 0, height(megapixels));
+    }
+
+    /**
+     * Returns png file with the image in the temporary directory, writes it
+     * strip by strip if it does not exist yet.
+     *
+     * @param megapixels image size
+     */
+    public static File png(int megapixels) throws IOException,
+                    InterruptedException
+    {
+        File f = new File(System.getProperty("java.io.tmpdir"),
+                        "dcsteg-bench-" + megapixels + "mp.png");
+
+        if (f.isFile())
+            return f;
+
+        File tmp = new File(f.getPath() + ".part");
+        int hgt = height(megapixels);
+        PngStripWriter png = new PngStripWriter(new FileOutputStream(tmp),
+                        width(megapixels), hgt);
+
+        for (int y = 0; y < hgt; y += STRIP)
+            png.write(rows(megapixels, y, Math.min(STRIP, hgt - y)));
+        png.close();
+
+        if (!tmp.renameTo(f))
+            throw new IOException("Cannot rename " + tmp + " to " + f);
+        return f;
+    }
+
+    /**
+     * Returns RGB value of pixel.
+     */
+    private static int pixel(int x, int y)
+    {
+        int base = (int) (128 + 100 * Math.sin(x / 37.0) * Math.cos(y / 23.0));
+        int h = x * 0x9E3779B1 ^ y * 0x85EBCA77;
+
+        h ^= h >>> 15;
+        h *= 0x2C1B3C6D;
+        h ^= h >>> 12;
+
+        int r = clamp(base + (h & 31) - 15);
+        int g = clamp(base / 2 + 60 + ((h >>> 8) & 31) - 15);
+        int b = clamp(255 - base + ((h >>> 16) & 31) - 15);
+        return (r << 16) | (g << 8) | b;
+    }
+
+    private static int clamp(int v)
+    {
+        return (v < 0) ? 0 : (v > 255) ? 255 : v;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Part of DCSteg steganographic/watermarking utility.
+ * Distributed under GPL v2 license.
+ */
+package Stegano.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Stegano.BlockRows;
+import Stegano.CapacityReport;
+import Stegano.RGBImage;
+import Stegano.YCbCrImage;
+
+/**
+ * {@link YCbCrImage#forwardTransform} of synthetic images, with both
+ * transforms and with one or all processors. The image is created in
+ * luma-only mode fresh before every invocation (not measured), since the full
+ * transform works in place. Luma is computed by the transform, so it is
+ * measured as well; the lazy DC-only transform is completed by
+ * {@link YCbCrImage#completeTransform}.
+ *
+ * @author Ondrej Mikle
+ * @version 0.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class TransformBenchmark
+{
+    @Param( { "1", "10", "100" })
+    public int megapixels;
+
+    /**
+     * Number of threads, 0 means all processors.
+     */
+    @Param( { "1", "0" })
+    public int threads;
+
+    @Param( { "DC_ONLY", "FULL" })
+    public YCbCrImage.Transform transform;
+
+    private RGBImage rgb;
+
+    private YCbCrImage ymg;
+
+    @Setup(Level.Trial)
+    public void image() throws InterruptedException
+    {
+        BlockRows.setParallelism((threads > 0) ? threads : Runtime
+                        .getRuntime().availableProcessors());
+        rgb = SyntheticImages.create(megapixels);
+    }
+
+    @Setup(Level.Invocation)
+    public void luma()
+    {
+        ymg = new YCbCrImage(rgb, true);
+        ymg.setTransform(transform);
+    }
+
+    @Benchmark
+    public YCbCrImage forwardTransform()
+    {
+        ymg.forwardTransform();
+        ymg.completeTransform();
+        return ymg;
+    }
+
+    @Benchmark
+    public CapacityReport forwardTransformAnalyze()
+    {
+        ymg.forwardTransform();
+        return ymg.analyze();
+    }
+}
@@ -0,0 +1,569 @@
+/*
+ * Part of DCSteg steganographic/watermarking utility.
+ * Distributed under GPL v2 license.
+ */
+package Stegano;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Encodes messages into many images in one JVM. Jobs come from a directory
+ * (same message and order for every image) or from a manifest - CSV with
+ * columns input, output, order, message (optional header line) or JSONL with
+ * objects having keys input, output, order, message. Paths in the manifest
+ * are taken as they are (relative to the working directory).
+ *
+ * Jobs run concurrently on a fixed thread pool, number of jobs in flight is
+ * bounded, so the manifest is read as the jobs proceed and may be
+ * arbitrarily long. Number of threads is given by system property
+ * <code>dcsteg.batch.threads</code>, number of processors if not set. Each
+ * job prints its status line, a failing job does not stop the others.
+ *
+ * @author Ondrej Mikle
+ * @version 0.1
+ */
+public class BatchRunner
+{
+    /**
+     * One image to encode.
+     */
+    private static class Job
+    {
+        String input, output, message;
+
+        int order;
+
+        /**
+         * Where the job comes from (manifest line or file name), for
+         * reporting.
+         */
+        String origin;
+    }
+
+    /**
+     * Thread pool running the jobs.
+     */
+    private final ExecutorService pool;
+
+    /**
+     * Limits number of jobs in flight.
+     */
+    private final Semaphore slots;
+
+    /**
+     * Where to report status.
+     */
+    private final PrintStream out;
+
+    /**
+     * Statistics.
+     */
+    private final AtomicInteger succeeded = new AtomicInteger(),
+                    failed = new AtomicInteger();
+
+    private final AtomicLong pixels = new AtomicLong();
+
+    private final long start = System.nanoTime();
+
+    /**
+     * Creates batch runner.
+     *
+     * @param threads number of images processed concurrently
+     * @param out stream for status lines and summary
+     */
+    public BatchRunner(int threads, PrintStream out)
+    {
+        pool = Executors.newFixedThreadPool(threads);
+        slots = new Semaphore(threads * 2);
+        this.out = out;
+    }
+
+    /**
+     * Encodes the message into every image in a directory. Output images
+     * are named after the input ones with png extension.
+     *
+     * @param dir input directory
+     * @param order imprint strength
+     * @param outdir output directory, created if necessary
+     * @param msg the message
+     * @return number of failed images
+     */
+    public static int runDirectory(String dir, int order, String outdir,
+                    String msg) throws IOException, InterruptedException
+    {
+        File[] files = new File(dir).listFiles();
+
+        if (files == null)
+            throw new IOException("Cannot list directory " + dir);
+
+        File od = new File(outdir);
+        if (!od.isDirectory() && !od.mkdirs())
+            throw new IOException("Cannot create directory " + outdir);
+
+        List<String> suffixes = Arrays.asList(ImageIO.getReaderFileSuffixes());
+        Arrays.sort(files);
+
+        BatchRunner runner = new BatchRunner(threads(), System.out);
+        for (int i = 0; i < files.length; i++)
+        {
+            String name = files[i].getName();
+            int dot = name.lastIndexOf('.');
+
+            if (!files[i].isFile() || dot < 0
+                || !suffixes.contains(name.substring(dot + 1).toLowerCase()))
+                continue;
+
+            Job job = new Job();
+            job.input = files[i].getPath();
+            job.output = new File(od, name.substring(0, dot) + ".png")
+                            .getPath();
+            job.order = order;
+            job.message = msg;
+            job.origin = name;
+            runner.submit(job);
+        }
+
+        return runner.finish();
+    }
+
+    /**
+     * Runs all jobs of a manifest. Format is chosen by extension, .jsonl
+     * (or .json) is JSONL, anything else CSV.
+     *
+     * @param manifest manifest filename
+     * @return number of failed jobs (including malformed manifest rows)
+     */
+    public static int runManifest(String manifest) throws IOException,
+                    InterruptedException
+    {
+        boolean json = manifest.toLowerCase().endsWith(".jsonl")
+            || manifest.toLowerCase().endsWith(".json");
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                        new FileInputStream(manifest), "UTF-8"));
+        BatchRunner runner = new BatchRunner(threads(), System.out);
+
+        try
+        {
+            String line;
+            int lineno = 0;
+
+            while ((line = in.readLine()) != null)
+            {
+                lineno++;
+                String origin = manifest + ":" + lineno;
+
+                if (!json)
+                {
+                    // quoted fields may span several lines
+                    while (quotesOpen(line))
+                    {
+                        String next = in.readLine();
+                        if (next == null)
+                            break;
+                        line += "\n" + next;
+                        lineno++;
+                    }
+                }
+                if (line.trim().length() == 0)
+                    continue;
+
+                try
+                {
+                    Job job = json ? parseJson(line) : parseCsv(line);
+
+                    if (job == null) // CSV header
+                        continue;
+                    job.origin = origin;
+                    runner.submit(job);
+                } catch (IllegalArgumentException e)
+                {
+                    runner.report(false, origin + ": malformed row: "
+                                    + e.getMessage());
+                }
+            }
+        } finally
+        {
+            in.close();
+        }
+
+        return runner.finish();
+    }
+
+    /**
+     * Returns configured number of threads.
+     */
+    private static int threads()
+    {
+        return Math.max(1, Integer.getInteger("dcsteg.batch.threads",
+                        Runtime.getRuntime().availableProcessors()).intValue());
+    }
+
+    /**
+     * Submits job, blocks while too many jobs are in flight.
+     */
+    private void submit(final Job job) throws InterruptedException
+    {
+        slots.acquire();
+        pool.execute(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    process(job);
+                } finally
+                {
+                    slots.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Encodes one image and reports the result.
+     */
+    private void process(Job job)
+    {
+        long t0 = System.nanoTime();
+
+        try
+        {
+            int[] size = size(job.input);
+
+            // every image is encoded once, caching it would be a waste
+            DCSteg.encode(job.input, job.output, job.order, job.message,
+                            null, StripProcessor.stripRowsFor(size[0],
+                                            size[1]), false);
+            pixels.addAndGet((long) size[0] * size[1]);
+            report(true, job.origin + ": " + job.input + " -> " + job.output
+                            + " (" + (System.nanoTime() - t0) / 1000000
+                            + " ms)");
+        } catch (EndOfMediumException e)
+        {
+            report(false, job.origin + ": " + job.input
+                            + ": not enough space for the message");
+        } catch (Exception e)
+        {
+            report(false, job.origin + ": " + job.input + ": " + e);
+        } catch (OutOfMemoryError e)
+        {
+            report(false, job.origin + ": " + job.input + ": " + e);
+        }
+    }
+
+    /**
+     * Prints status line of a job and counts it.
+     */
+    private void report(boolean ok, String msg)
+    {
+        (ok ? succeeded : failed).incrementAndGet();
+        synchronized (out)
+        {
+            out.println((ok ? "OK   " : "FAIL ") + msg);
+        }
+    }
+
+    /**
+     * Waits for all jobs, prints summary.
+     *
+     * @return number of failed jobs
+     */
+    private int finish() throws InterruptedException
+    {
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+
+        double secs = (System.nanoTime() - start) / 1e9;
+        int ok = succeeded.get();
+
+        out.println(String.format(
+                        "%d images encoded, %d failed in %.1f s: %.2f images/s, %.2f MP/s",
+                        ok, failed.get(), secs, ok / secs, pixels.get() / 1e6
+                                        / secs));
+        return failed.get();
+    }
+
+    /**
+     * Returns width and height of an image, reads just the header.
+     */
+    private static int[] size(String fname) throws IOException
+    {
+        ImageInputStream iis = ImageIO.createImageInputStream(new File(fname));
+
+        if (iis == null)
+            throw new IOException("Cannot open " + fname);
+        try
+        {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext())
+                throw new IOException("Unsupported image format");
+
+            ImageReader reader = readers.next();
+            try
+            {
+                reader.setInput(iis, true, true);
+                return new int[] { reader.getWidth(0), reader.getHeight(0) };
+            } finally
+            {
+                reader.dispose();
+            }
+        } finally
+        {
+            iis.close();
+        }
+    }
+
+    /**
+     * Returns job from CSV row: input, output, order, message. Fields may be
+     * quoted, quote inside quoted field is doubled.
+     *
+     * @return the job, null if the row is header
+     * @throws IllegalArgumentException if the row is malformed
+     */
+    private static Job parseCsv(String line)
+    {
+        List<String> fields = new ArrayList<String>();
+        StringBuilder f = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++)
+        {
+            char c = line.charAt(i);
+
+            if (quoted)
+            {
+                if (c != '"')
+                    f.append(c);
+                else if (i + 1 < line.length() && line.charAt(i + 1) == '"')
+                    f.append(line.charAt(++i));
+                else
+                    quoted = false;
+            } else if (c == '"')
+                quoted = true;
+            else if (c == ',')
+            {
+                fields.add(f.toString());
+                f.setLength(0);
+            } else
+                f.append(c);
+        }
+        fields.add(f.toString());
+
+        if (fields.size() != 4)
+            throw new IllegalArgumentException("expected 4 fields, got "
+                            + fields.size());
+        if (fields.get(0).trim().equalsIgnoreCase("input"))
+            return null;
+
+        Job job = new Job();
+        job.input = fields.get(0).trim();
+        job.output = fields.get(1).trim();
+        job.order = parseOrder(fields.get(2).trim());
+        job.message = fields.get(3);
+        return job;
+    }
+
+    /**
+     * Returns true if the CSV text ends inside a quoted field.
+     */
+    private static boolean quotesOpen(String line)
+    {
+        boolean open = false;
+
+        for (int i = 0; i < line.length(); i++)
+            if (line.charAt(i) == '"')
+                open = !open;
+        return open;
+    }
+
+    /**
+     * Returns job from JSON object with keys input, output, order, message.
+     * Only flat objects with string and number values are supported.
+     *
+     * @throws IllegalArgumentException if the object is malformed
+     */
+    private static Job parseJson(String line)
+    {
+        Map<String, String> obj = new HashMap<String, String>();
+        int[] pos = { skip(line, 0) };
+
+        expect(line, pos, '{');
+        if (peek(line, pos) != '}')
+        {
+            while (true)
+            {
+                String key = jsonString(line, pos);
+                expect(line, pos, ':');
+
+                String val;
+                if (peek(line, pos) == '"')
+                    val = jsonString(line, pos);
+                else
+                {
+                    int s = pos[0];
+                    while (pos[0] < line.length()
+                        && ",} \t".indexOf(line.charAt(pos[0])) < 0)
+                        pos[0]++;
+                    val = line.substring(s, pos[0]);
+                    pos[0] = skip(line, pos[0]);
+                }
+                obj.put(key, val);
+
+                if (peek(line, pos) == ',')
+                {
+                    pos[0] = skip(line, pos[0] + 1);
+                    continue;
+                }
+                break;
+            }
+        }
+        expect(line, pos, '}');
+
+        Job job = new Job();
+        job.input = required(obj, "input");
+        job.output = required(obj, "output");
+        job.order = parseOrder(required(obj, "order"));
+        job.message = required(obj, "message");
+        return job;
+    }
+
+    /**
+     * Returns value of mandatory key.
+     */
+    private static String required(Map<String, String> obj, String key)
+    {
+        String v = obj.get(key);
+
+        if (v == null)
+            throw new IllegalArgumentException("missing " + key);
+        return v;
+    }
+
+    /**
+     * Parses imprint strength.
+     */
+    private static int parseOrder(String s)
+    {
+        try
+        {
+            int order = Integer.parseInt(s);
+
+            if (order < 0 || order >= CapacityReport.ORDERS)
+                throw new IllegalArgumentException("bad order " + s);
+            return order;
+        } catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException("bad order " + s);
+        }
+    }
+
+    /**
+     * Skips whitespace.
+     */
+    private static int skip(String s, int i)
+    {
+        while (i < s.length() && Character.isWhitespace(s.charAt(i)))
+            i++;
+        return i;
+    }
+
+    /**
+     * Returns character at position, 0 at the end.
+     */
+    private static char peek(String s, int[] pos)
+    {
+        return (pos[0] < s.length()) ? s.charAt(pos[0]) : 0;
+    }
+
+    /**
+     * Consumes expected character and following whitespace.
+     */
+    private static void expect(String s, int[] pos, char c)
+    {
+        if (peek(s, pos) != c)
+            throw new IllegalArgumentException("expected '" + c + "' at "
+                            + pos[0]);
+        pos[0] = skip(s, pos[0] + 1);
+    }
+
+    /**
+     * Parses JSON string literal and following whitespace.
+     */
+    private static String jsonString(String s, int[] pos)
+    {
+        if (peek(s, pos) != '"')
+            throw new IllegalArgumentException("expected string at " + pos[0]);
+
+        StringBuilder b = new StringBuilder();
+        int i = pos[0] + 1;
+
+        while (true)
+        {
+            if (i >= s.length())
+                throw new IllegalArgumentException("unterminated string");
+
+            char c = s.charAt(i++);
+            if (c == '"')
+                break;
+            if (c != '\\')
+            {
+                b.append(c);
+                continue;
+            }
+            if (i >= s.length())
+                throw new IllegalArgumentException("unterminated string");
+
+            char e = s.charAt(i++);
+            switch (e)
+            {
+                case 'n':
+                    b.append('\n');
+                    break;
+                case 't':
+                    b.append('\t');
+                    break;
+                case 'r':
+                    b.append('\r');
+                    break;
+                case 'b':
+                    b.append('\b');
+                    break;
+                case 'f':
+                    b.append('\f');
+                    break;
+                case 'u':
+                    if (i + 4 > s.length())
+                        throw new IllegalArgumentException("bad escape");
+                    b.append((char) Integer.parseInt(s.substring(i, i + 4), 16));
+                    i += 4;
+                    break;
+                default:
+                    b.append(e);
+            }
+        }
+
+        pos[0] = skip(s, i);
+        return b.toString();
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Part of DCSteg steganographic/watermarking utility.
+ * Distributed under GPL v2 license.
+ */
+package Stegano;
+
+import java.util.Arrays;
+
+/**
+ * Growable sequence of bits packed into an array of longs. Bit i is stored in
+ * bit (i % 64) of word i / 64. Words of up to 32 bits are appended and read
+ * at once, so encoding codewords does not allocate or loop per bit.
+ *
+ * @author Ondrej Mikle
+ * @version 0.1
+ */
+public class BitBuffer
+{
+    /**
+     * The bits.
+     */
+    private long[] words;
+
+    /**
+     * Number of bits in the buffer.
+     */
+    private int size;
+
+    /**
+     * Creates empty buffer.
+     */
+    public BitBuffer()
+    {
+        this(64);
+    }
+
+    /**
+     * Creates empty buffer with space for given number of bits.
+     *
+     * @param capacity expected number of bits
+     */
+    public BitBuffer(int capacity)
+    {
+        words = new long[Math.max(1, (capacity + 63) >>> 6)];
+    }
+
+    /**
+     * Returns number of bits in the buffer.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns number of bits the buffer can hold without growing.
+     */
+    public int capacity()
+    {
+        return words.length << 6;
+    }
+
+    /**
+     * Makes sure there is space for given number of bits.
+     */
+    private void ensureCapacity(int bits)
+    {
+        if (bits > capacity())
+            words = Arrays.copyOf(words, Math.max(words.length * 2,
+                            (bits + 63) >>> 6));
+    }
+
+    /**
+     * Returns bit at given position.
+     *
+     * @param i bit index
+     * @throws IndexOutOfBoundsException if i is not less than size
+     */
+    public boolean get(int i)
+    {
+        if (i >= size)
+            throw new IndexOutOfBoundsException("Bit " + i + " of " + size);
+        return (words[i >>> 6] & (1L << i)) != 0;
+    }
+
+    /**
+     * Sets bit at given position.
+     *
+     * @param i bit index
+     * @param bit new value
+     * @throws IndexOutOfBoundsException if i is not less than size
+     */
+    public void set(int i, boolean bit)
+    {
+        if (i >= size)
+            throw new IndexOutOfBoundsException("Bit " + i + " of " + size);
+        if (bit)
+            words[i >>> 6] |= 1L << i;
+        else
+            words[i >>> 6] &= ~(1L << i);
+    }
+
+    /**
+     * Appends one bit.
+     *
+     * @param bit the bit
+     */
+    public void add(boolean bit)
+    {
+        ensureCapacity(size + 1);
+        if (bit)
+            words[size >>> 6] |= 1L << size;
+        size++;
+    }
+
+    /**
+     * Appends n lowest bits of value, bit 0 of value is appended first.
+     *
+     * @param value bits to append
+     * @param n number of bits, 0-32
+     */
+    public void append(int value, int n)
+    {
+        if (n == 0)
+            return;
+
+        ensureCapacity(size + n);
+
+        long v = value & (0xffffffffL >>> (32 - n));
+        int w = size >>> 6, off = size & 63;
+
+        words[w] |= v << off;
+        if (off + n > 64)
+            words[w + 1] |= v >>> (64 - off);
+        size += n;
+    }
+
+    /**
+     * Reads n bits starting at given position. Bit pos becomes bit 0 of the
+     * result.
+     *
+     * @param pos index of the first bit
+     * @param n number of bits, 0-32
+     * @throws IndexOutOfBoundsException if the range exceeds size
+     */
+    public int read(int pos, int n)
+    {
+        if (n == 0)
+            return 0;
+        if (pos + n > size)
+            throw new IndexOutOfBoundsException("Bits " + pos + "-"
+                            + (pos + n) + " of " + size);
+
+        int w = pos >>> 6, off = pos & 63;
+        long v = words[w] >>> off;
+
+        if (off + n > 64)
+            v |= words[w + 1] << (64 - off);
+        return (int) (v & (0xffffffffL >>> (32 - n)));
+    }
+
+    /**
+     * Returns source reading the bits from the first one.
+     */
+    public BitSource source()
+    {
+        return new BitSource()
+        {
+            private int pos;
+
+            public boolean next() throws EndOfMediumException
+            {
+                if (pos >= size)
+                    throw new EndOfMediumException("End of bit buffer");
+                return get(pos++);
+            }
+        };
+    }
+}
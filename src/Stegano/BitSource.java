@@ -0,0 +1,24 @@
+/*
+ * Part of DCSteg steganographic/watermarking utility.
+ * Distributed under GPL v2 license.
+ */
+package Stegano;
+
+/**
+ * Sequence of bits read on demand, e.g. carrier bits of an image read one by
+ * one as the message is decoded (see {@link StegCodec#decodeMessage(BitSource)}),
+ * so that decoding can stop at the message terminator without reading the
+ * rest of the medium.
+ *
+ * @author Ondrej Mikle
+ * @version 0.1
+ */
+public interface BitSource
+{
+    /**
+     * Returns the next bit.
+     *
+     * @throws EndOfMediumException if there are no more bits
+     */
+    boolean next() throws EndOfMediumException;
+}
@@ -16,9 +16,10 @@ public class Block8x8
 {
     /**
      * Computes forward and inverse DCT. The algorithm is the simple
-     * non-optimized version of DCT.
+     * non-optimized version of DCT, it is kept as the reference implementation
+     * other {@link Stegano.DCTEngine}s are checked against.
      */
-    public static class CosineTransform
+    public static class CosineTransform implements DCTEngine
     {
         /**
          * Default block size
@@ -47,18 +48,46 @@ public class Block8x8
          */
         public Block8x8 forward(Block8x8 input)
         {
-            Block8x8 output = new Block8x8(), temp = new Block8x8();
+            Block8x8 output = new Block8x8(input);
+
+            forward(output.data, new double[N * N]);
+            return output;
+        }
+
+        /**
+         * Inverse DCT.
+         * 
+         * @param input input block of DCT coefficients
+         * @return inversely transformed (spatial domain) pixel block
+         */
+        public Block8x8 reverse(Block8x8 input)
+        {
+            Block8x8 output = new Block8x8(input);
+
+            reverse(output.data, new double[N * N]);
+            return output;
+        }
+
+        /**
+         * Forward DCT on flat array.
+         * 
+         * @param block input pixel block, replaced by DCT coefficients
+         * @param scratch temporary storage of 64 doubles
+         */
+        public void forward(double[] block, double[] scratch)
+        {
             double temp1;
 
             for (int i = 0; i < N; i++)
             {
                 for (int j = 0; j < N; j++)
                 {
-                    temp.data[i][j] = 0.0;
+                    temp1 = 0.0;
                     for (int k = 0; k < N; k++)
                     {
-                        temp.data[i][j] += (((input.data[i][k]) - 128) * c[j][k]);
+                        temp1 += ((block[i * N + k] - 128) * c[j][k]);
                     }
+                    scratch[i * N + j] = temp1;
                 }
             }
 
@@ -70,37 +99,35 @@ public class Block8x8
 
                     for (int k = 0; k < N; k++)
                     {
-                        temp1 += (c[i][k] * temp.data[k][j]);
+                        temp1 += (c[i][k] * scratch[k * N + j]);
                     }
 
-                    output.data[i][j] = temp1;
+                    block[i * N + j] = temp1;
                 }
             }
-
-            return output;
         }
 
         /**
-         * Inverse DCT.
+         * Inverse DCT on flat array.
          * 
-         * @param input input block of DCT coefficients
-         * @return inversely transformed (spatial domain) pixel block
+         * @param block input block of DCT coefficients, replaced by pixels
+         * @param scratch temporary storage of 64 doubles
          */
-        public Block8x8 reverse(Block8x8 input)
+        public void reverse(double[] block, double[] scratch)
         {
-            Block8x8 output = new Block8x8(), temp = new Block8x8();
             double temp1;
 
             for (int i = 0; i < N; i++)
             {
                 for (int j = 0; j < N; j++)
                 {
-                    temp.data[i][j] = 0.0;
+                    temp1 = 0.0;
 
                     for (int k = 0; k < N; k++)
                     {
-                        temp.data[i][j] += input.data[i][k] * c[k][j];
+                        temp1 += block[i * N + k] * c[k][j];
                     }
+                    scratch[i * N + j] = temp1;
                 }
             }
 
@@ -112,16 +139,14 @@ public class Block8x8
 
                     for (int k = 0; k < N; k++)
                     {
-                        temp1 += c[k][i] * temp.data[k][j];
+                        temp1 += c[k][i] * scratch[k * N + j];
                     }
 
                     temp1 += 128.0;
 
-                    output.data[i][j] = temp1;
+                    block[i * N + j] = temp1;
                 }
             }
-
-            return output;
         }
 
         /**
@@ -149,9 +174,10 @@ public class Block8x8
     }
 
     /**
-     * Block data, publicly accessible.
+     * Block data, publicly accessible. Stored row by row, value at column x
+     * and row y is at index y * 8 + x.
      */
-    public double data[][];
+    public final double data[];
 
     /**
      * Static quantization table.
@@ -159,11 +185,21 @@ public class Block8x8
     public static final QuanTable qt50 = new QuanTable();
 
     /**
-     * Static DCT transform object.
+     * Static DCT transform object (reference implementation).
      */
 
     public static final CosineTransform DCT = new CosineTransform();
 
+    /**
+     * DCT engine used by {@link #forwardTransform} and
+     * {@link #reverseTransform}. Chosen by system property
+     * <code>dcsteg.dct</code>: <code>aan</code> (default) selects
+     * {@link Stegano.FastCosineTransform}, <code>reference</code> selects
+     * {@link #DCT}.
+     */
+    private static volatile DCTEngine engine = engineByName(System
+                    .getProperty("dcsteg.dct", "aan"));
+
     /**
      * Specifies the maximal DC coefficient after quantizing that can bear
      * information (otherwise the limited-integer transformations would cut off
@@ -176,7 +212,7 @@ public class Block8x8
      */
     public Block8x8()
     {
-        data = new double[8][8];
+        data = new double[64];
     }
 
     /**
@@ -184,12 +220,12 @@ public class Block8x8
      */
     public Block8x8(int[][] matrix)
     {
-        data = new double[8][8];
+        data = new double[64];
 
         for (int y = 0; y < 8; y++)
             for (int x = 0; x < 8; x++)
             {
-                data[y][x] = matrix[y][x];
+                data[y * 8 + x] = matrix[y][x];
             }
     }
 
@@ -198,14 +234,45 @@ public class Block8x8
      */
     public Block8x8(double[][] matrix)
     {
-        data = new double[8][8];
+        data = new double[64];
 
         for (int y = 0; y < 8; y++)
         {
-            System.arraycopy(matrix[y], 0, data[y], 0, 8);
+            System.arraycopy(matrix[y], 0, data, y * 8, 8);
         }
     }
 
+    /**
+     * Creates copy of block.
+     */
+    public Block8x8(Block8x8 b)
+    {
+        data = b.data.clone();
+    }
+
+    /**
+     * Returns value at given position.
+     * 
+     * @param x column
+     * @param y row
+     */
+    public double get(int x, int y)
+    {
+        return data[y * 8 + x];
+    }
+
+    /**
+     * Sets value at given position.
+     * 
+     * @param x column
+     * @param y row
+     * @param val the value
+     */
+    public void set(int x, int y, double val)
+    {
+        data[y * 8 + x] = val;
+    }
+
     /**
      * Returns true iff num is of order at least order+1, i.e. there exists a
      * set bit higher than order and absolute value of num is less or equal
@@ -224,12 +291,59 @@ public class Block8x8
             && (((int) absnum | (1 << order)) <= maxDCcoef)); //but not too bright
     }
 
+    /**
+     * Returns DCT engine of given name.
+     * 
+     * @param name <code>aan</code> or <code>reference</code>
+     * @throws IllegalArgumentException if there is no such engine
+     */
+    public static DCTEngine engineByName(String name)
+    {
+        if (name.equalsIgnoreCase("aan"))
+            return new FastCosineTransform();
+        if (name.equalsIgnoreCase("reference"))
+            return DCT;
+        throw new IllegalArgumentException("Unknown DCT engine: " + name);
+    }
+
+    /**
+     * Sets the DCT engine used for all subsequent transforms.
+     * 
+     * @param e the engine
+     */
+    public static void setEngine(DCTEngine e)
+    {
+        engine = e;
+    }
+
+    /**
+     * Returns the DCT engine currently in use.
+     */
+    public static DCTEngine getEngine()
+    {
+        return engine;
+    }
+
     /**
      * Computes forward DCT, quantizes and returns the transformed block
      */
     public Block8x8 forwardTransform()
     {
-        return qt50.quantize(DCT.forward(this));
+        Block8x8 out = new Block8x8(this);
+
+        out.forwardTransform(new Block8x8());
+        return out;
+    }
+
+    /**
+     * Computes forward DCT and quantizes the block in place.
+     * 
+     * @param scratch temporary storage, contents are undefined after the call
+     */
+    public void forwardTransform(Block8x8 scratch)
+    {
+        engine.forward(data, scratch.data);
+        qt50.quantize(this, this);
     }
 
     /**
@@ -238,6 +352,20 @@ public class Block8x8
      */
     public Block8x8 reverseTransform()
     {
-        return DCT.reverse(qt50.dequantize(this));
+        Block8x8 out = new Block8x8(this);
+
+        out.reverseTransform(new Block8x8());
+        return out;
+    }
+
+    /**
+     * Dequantizes the block and computes inverse DCT in place.
+     * 
+     * @param scratch temporary storage, contents are undefined after the call
+     */
+    public void reverseTransform(Block8x8 scratch)
+    {
+        qt50.dequantize(this, this);
+        engine.reverse(data, scratch.data);
     }
 }
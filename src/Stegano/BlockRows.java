@@ -0,0 +1,145 @@
+/*
+ * Part of DCSteg steganographic/watermarking utility.
+ * Distributed under GPL v2 license.
+ */
+package Stegano;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Parallel driver for work over rows of 8x8 blocks. Blocks are independent of
+ * each other, so the range of block rows is recursively split and the parts
+ * are processed in a shared {@link ForkJoinPool}.
+ *
+ * Parallelism is given by system property <code>dcsteg.threads</code>, number
+ * of available processors if not set. Parallelism 1 runs everything in the
+ * calling thread.
+ *
+ * @author Ondrej Mikle
+ * @version 0.1
+ */
+public class BlockRows
+{
+    /**
+     * Work done on a range of block rows. Must be safe to call concurrently
+     * for disjoint ranges.
+     */
+    public interface Kernel
+    {
+        /**
+         * Processes block rows.
+         *
+         * @param from first block row (inclusive)
+         * @param to last block row (exclusive)
+         */
+        void rows(int from, int to);
+    }
+
+    /**
+     * Number of parts per thread the rows are split into, more parts balance
+     * uneven load better.
+     */
+    private static final int PARTS_PER_THREAD = 4;
+
+    /**
+     * Requested parallelism level.
+     */
+    private static int parallelism = Integer.getInteger("dcsteg.threads",
+                    Runtime.getRuntime().availableProcessors()).intValue();
+
+    /**
+     * Pool running the tasks, created on first use.
+     */
+    private static ForkJoinPool pool;
+
+    /**
+     * Task processing range of rows, splits itself in halves while the range
+     * is larger than grain.
+     */
+    @SuppressWarnings("serial")
+    private static class Task extends RecursiveAction
+    {
+        private final int from, to, grain;
+
+        private final Kernel kernel;
+
+        Task(int from, int to, int grain, Kernel kernel)
+        {
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.kernel = kernel;
+        }
+
+        protected void compute()
+        {
+            if (to - from <= grain)
+            {
+                kernel.rows(from, to);
+                return;
+            }
+
+            int mid = (from + to) >>> 1;
+            invokeAll(new Task(from, mid, grain, kernel), new Task(mid, to,
+                            grain, kernel));
+        }
+    }
+
+    /**
+     * Sets the parallelism level for all subsequent work. Work already
+     * running in the previous pool finishes there; the pool is not shut down,
+     * its daemon workers end after being idle and it is collected.
+     *
+     * @param n number of threads, 1 means serial processing
+     * @throws IllegalArgumentException if n is less than 1
+     */
+    public static synchronized void setParallelism(int n)
+    {
+        if (n < 1)
+            throw new IllegalArgumentException("Parallelism must be positive");
+        if (n == parallelism)
+            return;
+
+        parallelism = n;
+        pool = null;
+    }
+
+    /**
+     * Returns the parallelism level.
+     */
+    public static synchronized int getParallelism()
+    {
+        return parallelism;
+    }
+
+    /**
+     * Returns the pool, creates it if necessary.
+     */
+    private static synchronized ForkJoinPool pool()
+    {
+        if (pool == null)
+            pool = new ForkJoinPool(parallelism);
+        return pool;
+    }
+
+    /**
+     * Runs kernel over all block rows and waits until it finishes.
+     *
+     * @param rows number of block rows
+     * @param kernel work to do
+     */
+    public static void forEach(int rows, Kernel kernel)
+    {
+        int threads = getParallelism();
+
+        if (threads == 1 || rows < 2)
+        {
+            kernel.rows(0, rows);
+            return;
+        }
+
+        int grain = Math.max(1, rows / (threads * PARTS_PER_THREAD));
+        pool().invoke(new Task(0, rows, grain, kernel));
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Part of DCSteg steganographic/watermarking utility.
+ * Distributed under GPL v2 license.
+ */
+package Stegano;
+
+/**
+ * Result of image capacity analysis. Built from histogram of magnitudes of
+ * quantized DC coefficients; since {@link Stegano.Block8x8#isOfOrder} depends
+ * only on the integer part of the magnitude, the number of carrier bits for
+ * every order follows from the histogram.
+ *
+ * @author Ondrej Mikle
+ * @version 0.1
+ */
+public class CapacityReport
+{
+    /**
+     * Number of imprint orders (strengths) that are analyzed. Testing orders 3
+     * and higher is of no use, since a) they are way too visible b) the space
+     * available is very low c) we can cross maximal brightness boundary very
+     * easily.
+     */
+    public static final int ORDERS = 3;
+
+    /**
+     * Number of histogram bins. Quantized DC of a block with luma values in
+     * range 0-255 lies in range -64..63.5, the last bin also collects anything
+     * larger.
+     */
+    public static final int BINS = 65;
+
+    /**
+     * Bit i of ORDER_MASK[v] is set iff DC of magnitude v can hold bit of
+     * order i.
+     */
+    private static final int[] ORDER_MASK = new int[BINS];
+
+    static
+    {
+        for (int v = 0; v < BINS; v++)
+            for (int i = 0; i < ORDERS; i++)
+                if (Block8x8.isOfOrder(v, i))
+                    ORDER_MASK[v] |= 1 << i;
+    }
+
+    /**
+     * Histogram of integer parts of DC magnitudes.
+     */
+    private final int[] histogram;
+
+    /**
+     * Carrier bits available for each order.
+     */
+    private final int[] bits = new int[ORDERS];
+
+    /**
+     * Creates report from histogram of DC magnitudes.
+     *
+     * @param histogram number of blocks for each integer part of DC magnitude,
+     *        {@link #BINS} long
+     */
+    public CapacityReport(int[] histogram)
+    {
+        this.histogram = histogram;
+
+        for (int v = 0; v < BINS; v++)
+            for (int i = 0; i < ORDERS; i++)
+                if ((ORDER_MASK[v] & (1 << i)) != 0)
+                    bits[i] += histogram[v];
+    }
+
+    /**
+     * Returns histogram bin of given DC coefficient.
+     *
+     * @param dc quantized DC coefficient
+     */
+    public static int bin(double dc)
+    {
+        int v = (int) Math.floor(Math.abs(dc));
+
+        return (v < BINS) ? v : BINS - 1;
+    }
+
+    /**
+     * Returns number of carrier bits available for given order.
+     *
+     * @param order imprint strength
+     */
+    public int getBits(int order)
+    {
+        return bits[order];
+    }
+
+    /**
+     * Returns number of message bytes that fit into the image at given order
+     * after expansion by the payload codec used for encoding, see
+     * {@link StegCodec#getCodec}.
+     *
+     * @param order imprint strength
+     */
+    public int getBytes(int order)
+    {
+        return Math.max(0, StegCodec.bits2bytesSpace(bits[order]));
+    }
+
+    /**
+     * Returns carrier bits of all orders, index is the order.
+     */
+    public int[] getBits()
+    {
+        return bits.clone();
+    }
+
+    /**
+     * Returns histogram of integer parts of DC magnitudes, index is the
+     * magnitude (last bin collects all larger).
+     */
+    public int[] getHistogram()
+    {
+        return histogram.clone();
+    }
+
+    /**
+     * Returns the strongest order that can hold message of given length, -1
+     * if none can.
+     *
+     * @param msgBytes message length in bytes
+     */
+    public int strongestOrder(int msgBytes)
+    {
+        for (int i = ORDERS - 1; i >= 0; i--)
+            if (getBytes(i) >= msgBytes)
+                return i;
+        return -1;
+    }
+}
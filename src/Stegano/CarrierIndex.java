@@ -0,0 +1,213 @@
+/*
+ * Part of DCSteg steganographic/watermarking utility.
+ * Distributed under GPL v2 license.
+ */
+package Stegano;
+
+import java.util.Arrays;
+
+/**
+ * Index of carrier blocks of a transformed image - for each imprint order the
+ * list of blocks whose DC coefficient can hold a message bit (see
+ * {@link Stegano.Block8x8#isOfOrder}), in the order they are used by the
+ * message. Reading or writing the n-th bit of medium is then just a lookup.
+ *
+ * Imprinting a bit of order k changes only bit k of the coefficient, higher
+ * bits stay the same, so the set of carriers of order k does not change by
+ * imprinting and the index stays valid until the image is transformed back.
+ *
+ * The index is built in two parallel passes over block rows: the first counts
+ * carriers of each row (and collects the histogram for
+ * {@link Stegano.CapacityReport}), the second fills the block numbers at
+ * offsets given by prefix sums of the counts. An image transformed lazily
+ * (see {@link YCbCrImage#forwardTransform}) extends its index by the block
+ * rows transformed so far, the carriers of the rows already indexed stay
+ * where they are.
+ *
+ * @author Ondrej Mikle
+ * @version 0.1
+ */
+public class CarrierIndex
+{
+    /**
+     * Carrier blocks of each order, ascending block indices. Arrays may be
+     * longer than the number of carriers while the index is being extended.
+     */
+    private final int[][] carriers = new int[CapacityReport.ORDERS][];
+
+    /**
+     * Number of carriers of each order.
+     */
+    private final int[] sizes = new int[CapacityReport.ORDERS];
+
+    /**
+     * Histogram of the DC coefficients of the rows indexed so far.
+     */
+    private final int[] hist = new int[CapacityReport.BINS];
+
+    /**
+     * Number of block rows of the image and of the rows indexed so far.
+     */
+    private final int blocksY;
+
+    private int rows;
+
+    /**
+     * Capacity report, computed when the whole image is indexed.
+     */
+    private CapacityReport report;
+
+    /**
+     * Builds the index of a transformed image.
+     *
+     * @param ymg image after {@link YCbCrImage#forwardTransform}
+     */
+    public CarrierIndex(YCbCrImage ymg)
+    {
+        this(ymg.getBlocksY());
+        extend(ymg, blocksY);
+    }
+
+    /**
+     * Creates empty index, to be filled by {@link #extend}.
+     *
+     * @param blocksY number of block rows of the image
+     */
+    CarrierIndex(int blocksY)
+    {
+        this.blocksY = blocksY;
+        for (int i = 0; i < carriers.length; i++)
+            carriers[i] = new int[0];
+    }
+
+    /**
+     * Adds carriers of further block rows to the index.
+     *
+     * @param ymg the image, its DC coefficients of the rows must be computed
+     * @param to last block row to index (exclusive)
+     */
+    synchronized void extend(final YCbCrImage ymg, int to)
+    {
+        if (to <= rows)
+            return;
+
+        final int from = rows;
+        final int orders = CapacityReport.ORDERS;
+        final int blocksX = ymg.getBlocksX();
+        final int[] counts = new int[(to - from) * orders];
+
+        BlockRows.forEach(to - from, new BlockRows.Kernel()
+        {
+            public void rows(int f, int t)
+            {
+                int[] part = new int[CapacityReport.BINS];
+
+                for (int by = from + f; by < from + t; by++)
+                    for (int b = by * blocksX; b < (by + 1) * blocksX; b++)
+                    {
+                        double dc = ymg.getDC(b);
+
+                        part[CapacityReport.bin(dc)]++;
+                        for (int i = 0; i < orders; i++)
+                            if (Block8x8.isOfOrder(dc, i))
+                                counts[(by - from) * orders + i]++;
+                    }
+
+                synchronized (hist)
+                {
+                    for (int v = 0; v < part.length; v++)
+                        hist[v] += part[v];
+                }
+            }
+        });
+
+        // counts become offsets of the first carrier of each row
+        for (int i = 0; i < orders; i++)
+        {
+            int total = sizes[i];
+
+            for (int r = 0; r < to - from; r++)
+            {
+                int c = counts[r * orders + i];
+
+                counts[r * orders + i] = total;
+                total += c;
+            }
+            if (total > carriers[i].length)
+                carriers[i] = Arrays.copyOf(carriers[i], (to < blocksY) ? Math
+                                .max(total, 2 * carriers[i].length) : total);
+            sizes[i] = total;
+        }
+
+        BlockRows.forEach(to - from, new BlockRows.Kernel()
+        {
+            public void rows(int f, int t)
+            {
+                for (int by = from + f; by < from + t; by++)
+                {
+                    int[] pos = new int[orders];
+
+                    for (int i = 0; i < orders; i++)
+                        pos[i] = counts[(by - from) * orders + i];
+
+                    for (int b = by * blocksX; b < (by + 1) * blocksX; b++)
+                    {
+                        double dc = ymg.getDC(b);
+
+                        for (int i = 0; i < orders; i++)
+                            if (Block8x8.isOfOrder(dc, i))
+                                carriers[i][pos[i]++] = b;
+                    }
+                }
+            }
+        });
+
+        rows = to;
+        if (rows == blocksY)
+            report = new CapacityReport(hist);
+    }
+
+    /**
+     * Returns true if all block rows of the image are indexed.
+     */
+    public synchronized boolean isComplete()
+    {
+        return rows == blocksY;
+    }
+
+    /**
+     * Returns number of carrier blocks (bits) of given order found so far.
+     *
+     * @param order imprint strength
+     */
+    public synchronized int size(int order)
+    {
+        return sizes[order];
+    }
+
+    /**
+     * Returns block holding the n-th bit of medium of given order.
+     *
+     * @param order imprint strength
+     * @param n bit number
+     * @throws ArrayIndexOutOfBoundsException if there is no such bit
+     */
+    public synchronized int block(int order, int n)
+    {
+        if (n >= sizes[order])
+            throw new ArrayIndexOutOfBoundsException(n);
+        return carriers[order][n];
+    }
+
+    /**
+     * Returns the capacity report of the image.
+     *
+     * @throws IllegalStateException if the index is not complete
+     */
+    public synchronized CapacityReport getReport()
+    {
+        if (report == null)
+            throw new IllegalStateException("Carrier index is not complete");
+        return report;
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Part of DCSteg steganographic/watermarking utility.
+ * Distributed under GPL v2 license.
+ */
+package Stegano;
+
+/**
+ * Kernels converting pixels between RGB and YCbCr colorspace. Used by
+ * {@link YCbCrImage#YCbCrImage(RGBImage, boolean)} and
+ * {@link RGBImage#RGBImage(YCbCrImage)}. The kernel is chosen by system
+ * property <code>dcsteg.color</code> (<code>double</code> or
+ * <code>fixed</code>), {@link #DOUBLE} if not set.
+ *
+ * @author Ondrej Mikle
+ * @version 0.1
+ */
+public enum ColorConversion
+{
+    /**
+     * Straightforward floating point conversion, nine multiplications per
+     * pixel in each direction.
+     */
+    DOUBLE
+    {
+        public void toYCbCr(short[] R, short[] G, short[] B, double[] Y,
+                        double[] Cb, double[] Cr, int from, int to)
+        {
+            for (int i = from; i < to; i++)
+            {
+                int r = R[i], g = G[i], b = B[i];
+
+                Y[i] = 0.299 * r + 0.587 * g + 0.114 * b;
+                if (Cb == null)
+                    continue;
+                Cb[i] = -0.1687 * r - 0.3313 * g + 0.5 * b;
+                Cr[i] = 0.5 * r - 0.4187 * g - 0.0813 * b;
+            }
+        }
+
+        public void toRGB(double[] Y, double[] Cb, double[] Cr, short[] R,
+                        short[] G, short[] B, int from, int to)
+        {
+            for (int i = from; i < to; i++)
+            {
+                double y = Y[i], cb = Cb[i], cr = Cr[i];
+
+                // transition YCbCr -> RGB (linear operator)
+                R[i] = RGBImage.norm(y - 0.001 * cb + 1.402 * cr);
+                G[i] = RGBImage.norm(y - 0.344 * cb - 0.714 * cr);
+                B[i] = RGBImage.norm(y + 1.772 * cb + 0.001 * cr);
+            }
+        }
+    },
+
+    /**
+     * Fixed point conversion. Forward direction sums three entries of
+     * per-channel 256-entry tables holding the products scaled by 2^16, so
+     * each of Y, Cb, Cr differs from {@link #DOUBLE} by at most
+     * {@link #MAX_FORWARD_DEVIATION}. Inverse direction converts Y, Cb, Cr to
+     * 16-bit fixed point and multiplies by coefficients scaled by 2^20 in
+     * long arithmetic, rounding by shift; each of R, G, B differs from
+     * {@link #DOUBLE} by at most {@link #MAX_INVERSE_DEVIATION} (results can
+     * differ only where the exact value is within about 1e-4 of a rounding
+     * boundary).
+     */
+    FIXED
+    {
+        public void toYCbCr(short[] R, short[] G, short[] B, double[] Y,
+                        double[] Cb, double[] Cr, int from, int to)
+        {
+            for (int i = from; i < to; i++)
+            {
+                int r = R[i], g = G[i], b = B[i];
+
+                Y[i] = (Y_R[r] + Y_G[g] + Y_B[b]) * FWD_UNIT;
+                if (Cb == null)
+                    continue;
+                Cb[i] = (CB_R[r] + CB_G[g] + CB_B[b]) * FWD_UNIT;
+                Cr[i] = (CR_R[r] + CR_G[g] + CR_B[b]) * FWD_UNIT;
+            }
+        }
+
+        public void toRGB(double[] Y, double[] Cb, double[] Cr, short[] R,
+                        short[] G, short[] B, int from, int to)
+        {
+            for (int i = from; i < to; i++)
+            {
+                long y = (long) (Y[i] * IN_ONE) << COEF_SHIFT;
+                long cb = (long) (Cb[i] * IN_ONE), cr = (long) (Cr[i] * IN_ONE);
+
+                R[i] = clamp((y + R_CB * cb + R_CR * cr + HALF) >> SHIFT);
+                G[i] = clamp((y + G_CB * cb + G_CR * cr + HALF) >> SHIFT);
+                B[i] = clamp((y + B_CB * cb + B_CR * cr + HALF) >> SHIFT);
+            }
+        }
+    };
+
+    /**
+     * Maximal absolute difference of Y, Cb or Cr computed by {@link #FIXED}
+     * from {@link #DOUBLE}: three table entries, each rounded to 2^-16.
+     */
+    public static final double MAX_FORWARD_DEVIATION = 3.0 / (1 << 17);
+
+    /**
+     * Maximal absolute difference of R, G or B computed by {@link #FIXED}
+     * from {@link #DOUBLE}.
+     */
+    public static final int MAX_INVERSE_DEVIATION = 1;
+
+    /**
+     * Fixed point scale of forward tables.
+     */
+    private static final double FWD_UNIT = 1.0 / (1 << 16);
+
+    /**
+     * Forward tables, products of channel value and coefficient scaled by
+     * 2^16.
+     */
+    private static final int[] Y_R = table(0.299), Y_G = table(0.587),
+                    Y_B = table(0.114), CB_R = table(-0.1687),
+                    CB_G = table(-0.3313), CB_B = table(0.5),
+                    CR_R = table(0.5), CR_G = table(-0.4187),
+                    CR_B = table(-0.0813);
+
+    /**
+     * Fixed point scale of inverse inputs (16 bits) and coefficients (20
+     * bits), result is scaled by 2^SHIFT.
+     */
+    private static final int IN_BITS = 16, COEF_SHIFT = 20,
+                    SHIFT = IN_BITS + COEF_SHIFT;
+
+    private static final double IN_ONE = 1 << IN_BITS;
+
+    private static final long HALF = 1L << (SHIFT - 1);
+
+    /**
+     * Inverse coefficients scaled by 2^20.
+     */
+    private static final long R_CB = coef(-0.001), R_CR = coef(1.402),
+                    G_CB = coef(-0.344), G_CR = coef(-0.714),
+                    B_CB = coef(1.772), B_CR = coef(0.001);
+
+    /**
+     * Default kernel, given by property <code>dcsteg.color</code>.
+     */
+    private static volatile ColorConversion current = valueOf(System
+                    .getProperty("dcsteg.color", "double").toUpperCase());
+
+    /**
+     * Converts pixels from RGB to YCbCr.
+     *
+     * @param R red input
+     * @param G green input
+     * @param B blue input
+     * @param Y luma output
+     * @param Cb blue chroma output, may be null (then Cr is ignored and only
+     *        luma is computed)
+     * @param Cr red chroma output
+     * @param from first pixel
+     * @param to last pixel (exclusive)
+     */
+    public abstract void toYCbCr(short[] R, short[] G, short[] B, double[] Y,
+                    double[] Cb, double[] Cr, int from, int to);
+
+    /**
+     * Converts pixels from YCbCr to RGB, values are rounded and clamped to
+     * 0-255.
+     *
+     * @param Y luma input
+     * @param Cb blue chroma input
+     * @param Cr red chroma input
+     * @param R red output
+     * @param G green output
+     * @param B blue output
+     * @param from first pixel
+     * @param to last pixel (exclusive)
+     */
+    public abstract void toRGB(double[] Y, double[] Cb, double[] Cr,
+                    short[] R, short[] G, short[] B, int from, int to);
+
+    /**
+     * Returns the kernel in use.
+     */
+    public static ColorConversion get()
+    {
+        return current;
+    }
+
+    /**
+     * Sets the kernel used for all subsequent conversions.
+     *
+     * @param c the kernel
+     */
+    public static void set(ColorConversion c)
+    {
+        current = c;
+    }
+
+    /**
+     * Computes forward table of a coefficient.
+     */
+    private static int[] table(double coef)
+    {
+        int[] t = new int[256];
+
+        for (int v = 0; v < 256; v++)
+            t[v] = (int) Math.round(coef * v * (1 << 16));
+        return t;
+    }
+
+    /**
+     * Computes inverse coefficient in fixed point.
+     */
+    private static long coef(double c)
+    {
+        return Math.round(c * (1 << COEF_SHIFT));
+    }
+
+    /**
+     * Clamps value to range 0-255.
+     */
+    private static short clamp(long v)
+    {
+        return (short) ((v < 0) ? 0 : (v > 255) ? 255 : v);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Part of DCSteg steganographic/watermarking utility.
+ * Distributed under GPL v2 license.
+ */
+package Stegano;
+
+/**
+ * Checks the documented bounds of {@link ColorConversion#FIXED} against
+ * {@link ColorConversion#DOUBLE} exhaustively: forward conversion of all
+ * 2^24 RGB triples must stay within
+ * {@link ColorConversion#MAX_FORWARD_DEVIATION}, inverse conversion within
+ * {@link ColorConversion#MAX_INVERSE_DEVIATION}. Inverse inputs are Y, Cb, Cr
+ * of every RGB triple with Y shifted by each of {@link #LUMA_SHIFTS}, i.e.
+ * 4 x 2^24 inputs off the grid of exact conversions, as after imprinting.
+ * Prints the maximal deviations found and exits with 1 if a bound is
+ * exceeded. Run by 'ant check'.
+ *
+ * @author Ondrej Mikle
+ * @version 0.1
+ */
+public class ColorConversionCheck
+{
+    /**
+     * Luma shifts of inverse inputs.
+     */
+    private static final double[] LUMA_SHIFTS = { 0, 0.25, -0.5, 0.75 };
+
+    /**
+     * Runs the check.
+     *
+     * @param args ignored
+     */
+    public static void main(String[] args)
+    {
+        int n = 1 << 16;
+        short[] R = new short[n], G = new short[n], B = new short[n];
+        double[] Yd = new double[n], Cbd = new double[n], Crd = new double[n];
+        double[] Yf = new double[n], Cbf = new double[n], Crf = new double[n];
+        short[] Rd = new short[n], Gd = new short[n], Bd = new short[n];
+        short[] Rf = new short[n], Gf = new short[n], Bf = new short[n];
+        double fwd = 0;
+        int inv = 0;
+
+        // one red value per round, all green and blue values
+        for (int r = 0; r < 256; r++)
+        {
+            for (int i = 0; i < n; i++)
+            {
+                R[i] = (short) r;
+                G[i] = (short) (i >> 8);
+                B[i] = (short) (i & 0xff);
+            }
+            ColorConversion.DOUBLE.toYCbCr(R, G, B, Yd, Cbd, Crd, 0, n);
+            ColorConversion.FIXED.toYCbCr(R, G, B, Yf, Cbf, Crf, 0, n);
+            for (int i = 0; i < n; i++)
+                fwd = Math.max(fwd, Math.max(Math.abs(Yd[i] - Yf[i]), Math
+                                .max(Math.abs(Cbd[i] - Cbf[i]), Math
+                                                .abs(Crd[i] - Crf[i]))));
+
+            for (int s = 0; s < LUMA_SHIFTS.length; s++)
+            {
+                for (int i = 0; i < n; i++)
+                    Yf[i] = Yd[i] + LUMA_SHIFTS[s];
+                ColorConversion.DOUBLE.toRGB(Yf, Cbd, Crd, Rd, Gd, Bd, 0, n);
+                ColorConversion.FIXED.toRGB(Yf, Cbd, Crd, Rf, Gf, Bf, 0, n);
+                for (int i = 0; i < n; i++)
+                    inv = Math.max(inv, Math.max(Math.abs(Rd[i] - Rf[i]), Math
+                                    .max(Math.abs(Gd[i] - Gf[i]), Math
+                                                    .abs(Bd[i] - Bf[i]))));
+            }
+        }
+
+        System.out.println("forward: max deviation " + fwd + ", bound "
+                        + ColorConversion.MAX_FORWARD_DEVIATION);
+        System.out.println("inverse: max deviation " + inv + ", bound "
+                        + ColorConversion.MAX_INVERSE_DEVIATION);
+        if (fwd > ColorConversion.MAX_FORWARD_DEVIATION
+            || inv > ColorConversion.MAX_INVERSE_DEVIATION)
+        {
+            System.out.println("Bound exceeded");
+            System.exit(1);
+        }
+    }
+}
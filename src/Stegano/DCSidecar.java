@@ -0,0 +1,320 @@
+/*
+ * Part of DCSteg steganographic/watermarking utility.
+ * Distributed under GPL v2 license.
+ */
+package Stegano;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Sidecar file holding quantized DC coefficients of an image, so that the
+ * image can be analyzed and decoded without decoding and transforming it
+ * again. The file is read through {@link FileChannel#map}, decoding reads just
+ * the carrier blocks found in the bitmaps.
+ *
+ * Format (big-endian):
+ * <pre>
+ *  0  magic "DCSC"
+ *  4  u16 version (1)
+ *  6  u16 number of orders (bitmaps)
+ *  8  i32 image width
+ * 12  i32 image height
+ * 16  i64 length of the source image file
+ * 24  32 bytes SHA-256 of the source image file
+ * 56  8 bytes reserved (0)
+ * 64  DC plane: f64 per whole 8x8 block, row by row
+ *     carrier bitmap of each order: (blocks + 63) / 64 i64 words, bit b % 64
+ *     of word b / 64 is set if block b carries a bit of that order
+ * </pre>
+ * Source length and hash identify the image the sidecar was made from for
+ * the user, they are not read back.
+ *
+ * @author Ondrej Mikle
+ * @version 0.1
+ */
+public class DCSidecar
+{
+    /**
+     * File magic, "DCSC".
+     */
+    public static final int MAGIC = 0x44435343;
+
+    /**
+     * Format version written.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Size of the header.
+     */
+    private static final int HEADER = 64;
+
+    private final int wid, hgt, blocks, orders;
+
+    /**
+     * DC plane and carrier bitmaps (all orders in a row).
+     */
+    private final DoubleBuffer dc;
+
+    private final LongBuffer bitmaps;
+
+    /**
+     * Reads sidecar from buffer (mapped file or file contents).
+     *
+     * @param buf the sidecar, position 0 is the magic
+     * @throws IOException if the buffer does not hold valid sidecar
+     */
+    public DCSidecar(ByteBuffer buf) throws IOException
+    {
+        if (buf.capacity() < HEADER || buf.getInt(0) != MAGIC)
+            throw new IOException("Not a DCSteg sidecar");
+        if ((buf.getShort(4) & 0xffff) != VERSION)
+            throw new IOException("Unsupported sidecar version "
+                            + (buf.getShort(4) & 0xffff));
+
+        orders = buf.getShort(6) & 0xffff;
+        wid = buf.getInt(8);
+        hgt = buf.getInt(12);
+
+        if (wid < 0 || hgt < 0 || orders < CapacityReport.ORDERS)
+            throw new IOException("Corrupted sidecar header");
+
+        long n = (long) (wid / 8) * (hgt / 8);
+        if (n > Integer.MAX_VALUE)
+            throw new IOException("Corrupted sidecar header");
+        blocks = (int) n;
+        if (buf.capacity() != size(blocks, orders))
+            throw new IOException("Sidecar size does not match its header");
+
+        ByteBuffer b = buf.duplicate();
+        b.position(HEADER);
+        dc = b.slice().asDoubleBuffer();
+        b.position(HEADER + 8 * blocks);
+        bitmaps = b.slice().asLongBuffer();
+    }
+
+    /**
+     * Maps sidecar file.
+     *
+     * @param f the file
+     * @throws IOException if the file cannot be read or is not valid sidecar
+     */
+    public static DCSidecar map(File f) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+
+        try
+        {
+            FileChannel ch = raf.getChannel();
+            // the mapping stays valid after the channel is closed
+            return new DCSidecar(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch
+                            .size()));
+        } finally
+        {
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns true if the file starts with sidecar magic.
+     *
+     * @param f the file
+     */
+    public static boolean isSidecar(File f) throws IOException
+    {
+        if (f.length() < HEADER)
+            return false;
+
+        InputStream in = new FileInputStream(f);
+        try
+        {
+            byte[] m = new byte[4];
+            return in.read(m) == 4 && isSidecar(m);
+        } finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns true if data start with sidecar magic.
+     *
+     * @param data file contents
+     */
+    public static boolean isSidecar(byte[] data)
+    {
+        return data.length >= 4 && ByteBuffer.wrap(data).getInt(0) == MAGIC;
+    }
+
+    /**
+     * Writes sidecar file.
+     *
+     * @param f file to write
+     * @param wid image width
+     * @param hgt image height
+     * @param plane quantized DC coefficients of whole blocks, row by row
+     * @param sourceHash SHA-256 of the source image file, see
+     *        {@link #digest}
+     * @param sourceLength length of the source image file
+     */
+    public static void write(File f, int wid, int hgt, double[] plane,
+                    byte[] sourceHash, long sourceLength) throws IOException
+    {
+        int blocks = plane.length, orders = CapacityReport.ORDERS;
+
+        if ((long) (wid / 8) * (hgt / 8) != blocks)
+            throw new IllegalArgumentException("DC plane size does not match image");
+
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try
+        {
+            long size = size(blocks, orders);
+            FileChannel ch = raf.getChannel();
+
+            raf.setLength(size);
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, 0,
+                            size);
+
+            buf.putInt(MAGIC).putShort((short) VERSION)
+                            .putShort((short) orders).putInt(wid).putInt(hgt)
+                            .putLong(sourceLength).put(sourceHash, 0, 32)
+                            .putLong(0);
+
+            buf.asDoubleBuffer().put(plane);
+            buf.position(HEADER + 8 * blocks);
+
+            int words = (int) ((blocks + 63L) / 64);
+            for (int i = 0; i < orders; i++)
+                for (int w = 0; w < words; w++)
+                {
+                    long word = 0;
+
+                    for (int b = w * 64; b < Math.min(blocks, w * 64 + 64); b++)
+                        if (Block8x8.isOfOrder(plane[b], i))
+                            word |= 1L << (b & 63);
+                    buf.putLong(word);
+                }
+            buf.force();
+        } finally
+        {
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns SHA-256 of stream contents, reads the stream to the end.
+     *
+     * @param in the stream, not closed
+     */
+    public static byte[] digest(InputStream in) throws IOException
+    {
+        try
+        {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] buf = new byte[1 << 16];
+            int n;
+
+            while ((n = in.read(buf)) > 0)
+                md.update(buf, 0, n);
+            return md.digest();
+        } catch (NoSuchAlgorithmException e)
+        {
+            // every JRE has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns file size for given number of blocks and orders.
+     */
+    private static long size(int blocks, int orders)
+    {
+        return HEADER + 8L * blocks + 8L * orders * ((blocks + 63L) / 64);
+    }
+
+    /**
+     * Returns image width.
+     */
+    public int getWidth()
+    {
+        return wid;
+    }
+
+    /**
+     * Returns image height.
+     */
+    public int getHeight()
+    {
+        return hgt;
+    }
+
+    /**
+     * Returns quantized DC coefficient of given block.
+     *
+     * @param block block index (row by row, whole blocks only)
+     */
+    public double getDC(int block)
+    {
+        return dc.get(block);
+    }
+
+    /**
+     * Returns source reading bits of the medium of given order one by one,
+     * in the order of {@link YCbCrImage#exportMedium} of the source image.
+     *
+     * @param order imprint strength
+     */
+    public BitSource mediumSource(final int order)
+    {
+        final int words = (int) ((blocks + 63L) / 64), base = order * words;
+
+        return new BitSource()
+        {
+            /**
+             * Current bitmap word and the carriers of it not read yet.
+             */
+            private int w = -1;
+
+            private long word;
+
+            public boolean next() throws EndOfMediumException
+            {
+                while (word == 0)
+                {
+                    if (++w >= words)
+                        throw new EndOfMediumException("End of medium");
+                    word = bitmaps.get(base + w);
+                }
+
+                int b = w * 64 + Long.numberOfTrailingZeros(word);
+                double val = dc.get(b);
+
+                word &= word - 1;
+                return ((int) Math.floor(Math.abs(val)) & (1 << order)) != 0;
+            }
+        };
+    }
+
+    /**
+     * Computes capacity analysis of the source image.
+     */
+    public CapacityReport analyze()
+    {
+        int[] hist = new int[CapacityReport.BINS];
+
+        for (int b = 0; b < blocks; b++)
+            hist[CapacityReport.bin(dc.get(b))]++;
+        return new CapacityReport(hist);
+    }
+}
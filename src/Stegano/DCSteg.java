@@ -5,6 +5,14 @@
 package Stegano;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Main runnable class DCSteg, allows image analysis, message imprint and
@@ -15,6 +23,16 @@ import java.io.*;
  */
 public class DCSteg
 {
+    /**
+     * Whether encoding tracks luma only and adds luma change to the source
+     * RGB samples (see {@link YCbCrImage#YCbCrImage(RGBImage, boolean)})
+     * instead of converting the whole image to YCbCr and back. Set by system
+     * property <code>dcsteg.lumadelta</code>, true by default.
+     */
+    static final boolean LUMA_DELTA = Boolean.valueOf(
+                    System.getProperty("dcsteg.lumadelta", "true"))
+                    .booleanValue();
+
     /**
      * Constructs a new instance.
      */
@@ -31,23 +49,202 @@ public class DCSteg
     public static void Analysis(String fname) throws IOException,
                     InterruptedException
     {
-        YCbCrImage ymg = new YCbCrImage(new RGBImage(fname));
+        CapacityReport report;
 
-        ymg.forwardTransform();
-        int orders[] = ymg.analysis();
+        if (DCSidecar.isSidecar(new File(fname)))
+        {
+            printReport(analyze(mapSidecar(StageEvent.ANALYZE, -1, fname)),
+                            System.out);
+            return;
+        }
 
-        for (int i = 0; i < orders.length; i++)
+        int strip = StripProcessor.stripRowsFor(fname);
+
+        if (strip > 0)
+        {
+            StripProcessor sp = new StripProcessor(fname);
+
+            try
+            {
+                sp.setStripRows(strip);
+                report = sp.analyze();
+            } finally
+            {
+                sp.close();
+            }
+        } else
+            report = analyze(readFile(fname));
+
+        printReport(report, System.out);
+    }
+
+    /**
+     * Prints capacity report in the format of the analysis command.
+     * 
+     * @param report the report
+     * @param out where to print it
+     */
+    public static void printReport(CapacityReport report, PrintStream out)
+    {
+        for (int i = 0; i < CapacityReport.ORDERS; i++)
         {
             // if number of bits available for the given order is zero, all
             // higher orders will be zero
-            if (orders[i] == 0)
+            if (report.getBits(i) == 0)
                 break;
-            System.out.println(i + ": " + orders[i] + " bits, after encoding "
-                            + StegCodec.bits2bytesSpace(orders[i])
+            out.println(i + ": " + report.getBits(i)
+                            + " bits, after encoding " + report.getBytes(i)
                             + " bytes available for the message");
         }
     }
 
+    /**
+     * Analyzes image read from stream.
+     * 
+     * @param in stream with the encoded image (jpg, png, ...), read to the
+     *        end but not closed
+     * @return capacity of the image
+     */
+    public static CapacityReport analyze(InputStream in) throws IOException,
+                    InterruptedException
+    {
+        return analyze(readAll(in));
+    }
+
+    /**
+     * Analyzes encoded image. The transformed image is looked up in and
+     * stored to {@link TransformCache#shared}.
+     * 
+     * @param data contents of the image file
+     * @return capacity of the image
+     */
+    public static CapacityReport analyze(byte[] data) throws IOException,
+                    InterruptedException
+    {
+        if (DCSidecar.isSidecar(data))
+            return analyze(new DCSidecar(ByteBuffer.wrap(data)));
+
+        String key = cacheKey(StageEvent.ANALYZE, -1, data);
+        TransformCache.Entry hit = cached(key);
+
+        if (hit != null)
+            return analyze(hit.image(null));
+
+        YCbCrImage ymg = transform(StageEvent.ANALYZE, -1, read(
+                        StageEvent.ANALYZE, -1, data), true);
+        CapacityReport report = analyze(ymg);
+
+        cache(key, ymg);
+        return report;
+    }
+
+    /**
+     * Analyzes image.
+     * 
+     * @param rmg the image
+     * @return capacity of the image
+     */
+    public static CapacityReport analyze(RGBImage rmg)
+    {
+        return analyze(transform(StageEvent.ANALYZE, -1, rmg, true));
+    }
+
+    /**
+     * Computes capacity report of transformed image.
+     * 
+     * @param ymg the image after forward transform
+     * @return capacity of the image
+     */
+    static CapacityReport analyze(YCbCrImage ymg)
+    {
+        StageEvent ev = new StageEvent(StageEvent.ANALYZE,
+                        StageEvent.ANALYSIS, -1).size(ymg.getWidth(), ymg
+                        .getHeight());
+        CapacityReport report = ymg.analyze();
+
+        ev.bits = report.getBits(0);
+        ev.commit();
+        return report;
+    }
+
+    /**
+     * Computes capacity report from sidecar.
+     * 
+     * @param sc the sidecar
+     * @return capacity of the source image
+     */
+    static CapacityReport analyze(DCSidecar sc)
+    {
+        StageEvent ev = new StageEvent(StageEvent.ANALYZE,
+                        StageEvent.ANALYSIS, -1).size(sc.getWidth(), sc
+                        .getHeight());
+        CapacityReport report = sc.analyze();
+
+        ev.bits = report.getBits(0);
+        ev.commit();
+        return report;
+    }
+
+    /**
+     * Writes sidecar file with quantized DC coefficients of the image, see
+     * {@link DCSidecar}. Analysis and decoding accept the sidecar in place
+     * of the image.
+     * 
+     * @param in input image filename
+     * @param out sidecar filename
+     */
+    public static void Sidecar(String in, String out) throws IOException,
+                    InterruptedException
+    {
+        int wid, hgt;
+        double[] plane;
+        int strip = StripProcessor.stripRowsFor(in);
+
+        if (strip > 0)
+        {
+            StripProcessor sp = new StripProcessor(in);
+
+            try
+            {
+                sp.setStripRows(strip);
+                plane = sp.dcPlane();
+                wid = sp.getWidth();
+                hgt = sp.getHeight();
+            } finally
+            {
+                sp.close();
+            }
+        } else
+        {
+            YCbCrImage ymg = transform(StageEvent.ANALYZE, -1, read(
+                            StageEvent.ANALYZE, -1, readFile(in)), true);
+
+            plane = new double[ymg.getBlocksX() * ymg.getBlocksY()];
+            ymg.completeTransform();
+            for (int b = 0; b < plane.length; b++)
+                plane[b] = ymg.getDC(b);
+            wid = ymg.getWidth();
+            hgt = ymg.getHeight();
+        }
+
+        InputStream src = new FileInputStream(in);
+        byte[] hash;
+        try
+        {
+            hash = DCSidecar.digest(src);
+        } finally
+        {
+            src.close();
+        }
+
+        StageEvent ev = new StageEvent(StageEvent.ANALYZE, StageEvent.WRITE,
+                        -1).size(wid, hgt);
+        DCSidecar.write(new File(out), wid, hgt, plane, hash, new File(in)
+                        .length());
+        ev.bytes = new File(out).length();
+        ev.commit();
+    }
+
     /**
      * Imprints the message into the image. Output image is saved in png format.
      * 
@@ -60,12 +257,207 @@ public class DCSteg
                     throws IOException, InterruptedException,
                     EndOfMediumException
     {
-        YCbCrImage ymg = new YCbCrImage(new RGBImage(in));
-        ymg.forwardTransform();
-        StegCodec.imprintMessage(ymg, msg, order);
-        ymg.reverseTransform();
-        RGBImage rmg = new RGBImage(ymg);
-        rmg.Save(out, "png");
+        Encode(in, out, order, msg, null);
+    }
+
+    /**
+     * Imprints the message into image, carriers are used in the order given
+     * by passphrase (see {@link KeyedPermutation}).
+     * 
+     * @param in input image filename
+     * @param out output image filename
+     * @param order strength of imprint (bit order used to imprint)
+     * @param msg message itself
+     * @param passphrase carrier order key, null for top to bottom order
+     */
+    public static void Encode(String in, String out, int order, String msg,
+                    String passphrase) throws IOException,
+                    InterruptedException, EndOfMediumException
+    {
+        encode(in, out, order, msg, passphrase, StripProcessor
+                        .stripRowsFor(in), true);
+    }
+
+    /**
+     * Imprints the message into image file, see
+     * {@link #Encode(String, String, int, String, String)}.
+     * 
+     * @param in input image filename
+     * @param out output image filename
+     * @param order strength of imprint (bit order used to imprint)
+     * @param msg message itself
+     * @param passphrase carrier order key, null for top to bottom order
+     * @param strip strip height, 0 to process the image whole, see
+     *        {@link StripProcessor#stripRowsFor(String)}
+     * @param useCache whether to use {@link TransformCache#shared}, false
+     *        for images encoded once
+     */
+    static void encode(String in, String out, int order, String msg,
+                    String passphrase, int strip, boolean useCache)
+                    throws IOException, InterruptedException,
+                    EndOfMediumException
+    {
+        if (strip > 0)
+        {
+            StripProcessor sp = new StripProcessor(in);
+
+            try
+            {
+                sp.setStripRows(strip);
+                sp.encode(out, order, msg, passphrase);
+            } finally
+            {
+                sp.close();
+            }
+            return;
+        }
+
+        RGBImage rmg = encode(readFile(in), order, msg, passphrase, useCache);
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(out));
+
+        try
+        {
+            write(rmg, order, os);
+        } finally
+        {
+            os.close();
+        }
+    }
+
+    /**
+     * Imprints the message into image read from stream, writes the result in
+     * png format.
+     * 
+     * @param in stream with the encoded input image, read to the end but not
+     *        closed
+     * @param out stream the png output is written to, not closed
+     * @param order strength of imprint (bit order used to imprint)
+     * @param msg message itself
+     */
+    public static void encode(InputStream in, OutputStream out, int order,
+                    String msg) throws IOException, InterruptedException,
+                    EndOfMediumException
+    {
+        write(encode(readAll(in), order, msg), order, out);
+    }
+
+    /**
+     * Imprints the message into encoded image. In luma delta mode the
+     * transformed image is looked up in {@link TransformCache#shared}, so
+     * that only decoding of the pixels is repeated for an image already seen.
+     * It is stored there if imprinting transformed it completely (the lazy
+     * transform of a short message stops at the top of the image). The
+     * image file is hashed for the lookup only if the cache is not empty.
+     * 
+     * @param data contents of the image file
+     * @param order strength of imprint (bit order used to imprint)
+     * @param msg message itself
+     * @return the imprinted image
+     */
+    public static RGBImage encode(byte[] data, int order, String msg)
+                    throws IOException, InterruptedException,
+                    EndOfMediumException
+    {
+        return encode(data, order, msg, null);
+    }
+
+    /**
+     * Imprints the message into encoded image, carriers are used in the order
+     * given by passphrase, see {@link #encode(byte[], int, String)}.
+     * 
+     * @param data contents of the image file
+     * @param order strength of imprint (bit order used to imprint)
+     * @param msg message itself
+     * @param passphrase carrier order key, null for top to bottom order
+     * @return the imprinted image
+     */
+    public static RGBImage encode(byte[] data, int order, String msg,
+                    String passphrase) throws IOException,
+                    InterruptedException, EndOfMediumException
+    {
+        return encode(data, order, msg, passphrase, true);
+    }
+
+    /**
+     * Imprints the message into encoded image, see
+     * {@link #encode(byte[], int, String, String)}.
+     * 
+     * @param data contents of the image file
+     * @param order strength of imprint (bit order used to imprint)
+     * @param msg message itself
+     * @param passphrase carrier order key, null for top to bottom order
+     * @param useCache whether to use {@link TransformCache#shared}, false
+     *        for images encoded once
+     * @return the imprinted image
+     */
+    static RGBImage encode(byte[] data, int order, String msg,
+                    String passphrase, boolean useCache) throws IOException,
+                    InterruptedException, EndOfMediumException
+    {
+        boolean caching = useCache && LUMA_DELTA;
+        String key = caching ? lookupKey(StageEvent.ENCODE, order, data)
+                        : null;
+        TransformCache.Entry hit = cached(key);
+        RGBImage rmg = read(StageEvent.ENCODE, order, data);
+        YCbCrImage ymg = (hit != null) ? hit.image(rmg) : transform(
+                        StageEvent.ENCODE, order, rmg, LUMA_DELTA);
+
+        imprint(ymg, order, msg, passphrase);
+        if (caching && hit == null)
+            cache(key, StageEvent.ENCODE, order, data, ymg);
+        return reverse(StageEvent.ENCODE, order, ymg);
+    }
+
+    /**
+     * Imprints the message into the image.
+     * 
+     * @param rmg the image, modified in place in luma delta mode
+     * @param order strength of imprint (bit order used to imprint)
+     * @param msg message itself
+     * @return the imprinted image
+     */
+    public static RGBImage encode(RGBImage rmg, int order, String msg)
+                    throws EndOfMediumException
+    {
+        return encode(transform(StageEvent.ENCODE, order, rmg, LUMA_DELTA),
+                        order, msg, null);
+    }
+
+    /**
+     * Imprints the message into transformed image and transforms it back.
+     * 
+     * @param ymg the image after forward transform
+     * @param order strength of imprint (bit order used to imprint)
+     * @param msg message itself
+     * @param passphrase carrier order key, null for top to bottom order
+     * @return the imprinted image
+     */
+    static RGBImage encode(YCbCrImage ymg, int order, String msg,
+                    String passphrase) throws EndOfMediumException
+    {
+        imprint(ymg, order, msg, passphrase);
+        return reverse(StageEvent.ENCODE, order, ymg);
+    }
+
+    /**
+     * Imprints the message into transformed image, emits the imprint stage
+     * event.
+     * 
+     * @param ymg the image after forward transform
+     * @param order strength of imprint (bit order used to imprint)
+     * @param msg message itself
+     * @param passphrase carrier order key, null for top to bottom order
+     */
+    private static void imprint(YCbCrImage ymg, int order, String msg,
+                    String passphrase) throws EndOfMediumException
+    {
+        StageEvent ev = new StageEvent(StageEvent.ENCODE, StageEvent.IMPRINT,
+                        order).size(ymg.getWidth(), ymg.getHeight());
+        BitBuffer medium = StegCodec.encodeMessage(msg);
+
+        ev.changeRatio = ymg.imprintMedium(order, medium, passphrase);
+        ev.bits = medium.size();
+        ev.commit();
     }
 
     /**
@@ -78,11 +470,727 @@ public class DCSteg
     public static void Decode(String in, int order) throws IOException,
                     InterruptedException
     {
-        YCbCrImage ymg = new YCbCrImage(new RGBImage(in));
+        Decode(in, order, null);
+    }
+
+    /**
+     * Decodes message imprinted with carrier order key.
+     * 
+     * @param in input image filename
+     * @param order strength of imprint
+     * @param passphrase carrier order key, null for top to bottom order
+     */
+    public static void Decode(String in, int order, String passphrase)
+                    throws IOException, InterruptedException
+    {
+        System.out.println(extract(in, order, false, passphrase));
+    }
+
+    /**
+     * Checks whether image carries a framed message (see {@link StegCodec}),
+     * prints the message if it does. Unmarked image is rejected after
+     * reading the first carriers.
+     * 
+     * @param in input image filename
+     * @param order strength of imprint
+     * @param passphrase carrier order key, null for top to bottom order
+     * @return true if the message was found
+     */
+    public static boolean Detect(String in, int order, String passphrase)
+                    throws IOException, InterruptedException
+    {
+        String msg = extract(in, order, true, passphrase);
+
+        if (msg != null)
+            System.out.println(msg);
+        return msg != null;
+    }
+
+    /**
+     * Decodes message from image without knowing the imprint strength, see
+     * {@link #decodeAuto(byte[])}. Prints the message and reports the
+     * strength found.
+     * 
+     * @param in input image filename
+     * @param passphrase carrier order key, null for top to bottom order
+     * @return true if a message was found
+     */
+    public static boolean DecodeAuto(String in, String passphrase)
+                    throws IOException, InterruptedException
+    {
+        DecodedMessage msg;
+        boolean sidecar = DCSidecar.isSidecar(new File(in));
+        int strip = sidecar ? 0 : StripProcessor.stripRowsFor(in);
+
+        if (sidecar)
+            msg = decodeAuto(mapSidecar(StageEvent.DECODE, -1, in),
+                            passphrase);
+        else if (strip > 0)
+        {
+            StripProcessor sp = new StripProcessor(in);
+
+            try
+            {
+                sp.setStripRows(strip);
+                msg = sp.decodeAuto(passphrase);
+            } finally
+            {
+                sp.close();
+            }
+        } else
+            msg = decodeAuto(readFile(in), passphrase);
+
+        if (msg == null)
+        {
+            System.err.println("No message found");
+            return false;
+        }
+        System.err.println("Message found at imprint strength "
+                        + msg.getOrder()
+                        + (msg.isFramed() ? "" : " (without frame)"));
+        System.out.println(msg.getMessage());
+        return true;
+    }
+
+    /**
+     * Decodes message from image file, sidecar or image streamed in strips.
+     * 
+     * @param in input image filename
+     * @param order strength of imprint
+     * @param frameOnly whether to accept framed message only
+     * @param passphrase carrier order key, null for top to bottom order
+     * @return the message, null if frameOnly is set and there is none
+     */
+    private static String extract(String in, int order, boolean frameOnly,
+                    String passphrase) throws IOException,
+                    InterruptedException
+    {
+        if (DCSidecar.isSidecar(new File(in)))
+            return decode(mapSidecar(StageEvent.DECODE, order, in), order,
+                            frameOnly, passphrase);
+
+        int strip = StripProcessor.stripRowsFor(in);
+
+        if (strip > 0)
+        {
+            StripProcessor sp = new StripProcessor(in);
+
+            try
+            {
+                sp.setStripRows(strip);
+                return frameOnly ? sp.detect(order, passphrase) : sp.decode(
+                                order, passphrase);
+            } finally
+            {
+                sp.close();
+            }
+        }
+        return decode(readFile(in), order, frameOnly, passphrase);
+    }
+
+    /**
+     * Decodes message from image read from stream.
+     * 
+     * @param in stream with the encoded image, read to the end but not
+     *        closed
+     * @param order strength of imprint
+     * @return extracted message
+     */
+    public static String decode(InputStream in, int order) throws IOException,
+                    InterruptedException
+    {
+        return decode(readAll(in), order);
+    }
+
+    /**
+     * Decodes message from encoded image. The transformed image is looked up
+     * in and stored to {@link TransformCache#shared}.
+     * 
+     * @param data contents of the image file
+     * @param order strength of imprint
+     * @return extracted message
+     */
+    public static String decode(byte[] data, int order) throws IOException,
+                    InterruptedException
+    {
+        return decode(data, order, false, null);
+    }
+
+    /**
+     * Decodes message imprinted with carrier order key from encoded image,
+     * see {@link #decode(byte[], int)}.
+     * 
+     * @param data contents of the image file
+     * @param order strength of imprint
+     * @param passphrase carrier order key, null for top to bottom order
+     * @return extracted message
+     */
+    public static String decode(byte[] data, int order, String passphrase)
+                    throws IOException, InterruptedException
+    {
+        return decode(data, order, false, passphrase);
+    }
+
+    /**
+     * Decodes framed message from encoded image, see
+     * {@link StegCodec#readFrame}. Only the first carriers of an unmarked
+     * image are transformed and read.
+     * 
+     * @param data contents of the image file
+     * @param order strength of imprint
+     * @return the message, null if the image carries no framed message
+     */
+    public static String detect(byte[] data, int order) throws IOException,
+                    InterruptedException
+    {
+        return decode(data, order, true, null);
+    }
+
+    /**
+     * Decodes framed message imprinted with carrier order key, see
+     * {@link #detect(byte[], int)}. The whole image is transformed.
+     * 
+     * @param data contents of the image file
+     * @param order strength of imprint
+     * @param passphrase carrier order key, null for top to bottom order
+     * @return the message, null if the image carries no framed message
+     */
+    public static String detect(byte[] data, int order, String passphrase)
+                    throws IOException, InterruptedException
+    {
+        return decode(data, order, true, passphrase);
+    }
+
+    /**
+     * Decodes message from encoded image without knowing the imprint
+     * strength. The image is read and transformed once, media of all
+     * strengths are then read concurrently, see {@link #extractAny}. The
+     * transformed image is looked up in and stored to
+     * {@link TransformCache#shared}.
+     * 
+     * @param data contents of the image file or sidecar
+     * @return the message with its imprint strength, null if the image holds
+     *         no framed or terminated message
+     */
+    public static DecodedMessage decodeAuto(byte[] data) throws IOException,
+                    InterruptedException
+    {
+        return decodeAuto(data, null);
+    }
+
+    /**
+     * Decodes message imprinted with carrier order key without knowing the
+     * imprint strength, see {@link #decodeAuto(byte[])}.
+     * 
+     * @param data contents of the image file or sidecar
+     * @param passphrase carrier order key, null for top to bottom order
+     * @return the message with its imprint strength, null if there is none
+     */
+    public static DecodedMessage decodeAuto(byte[] data, String passphrase)
+                    throws IOException, InterruptedException
+    {
+        if (DCSidecar.isSidecar(data))
+            return decodeAuto(new DCSidecar(ByteBuffer.wrap(data)),
+                            passphrase);
+
+        BitSource[] media = new BitSource[CapacityReport.ORDERS];
+        String key = lookupKey(StageEvent.DECODE, -1, data);
+        TransformCache.Entry hit = cached(key);
+        YCbCrImage ymg = (hit != null) ? hit.image(null) : transform(
+                        StageEvent.DECODE, -1, read(StageEvent.DECODE, -1,
+                                        data), true);
+
+        for (int i = 0; i < media.length; i++)
+            media[i] = ymg.mediumSource(i, passphrase);
+        DecodedMessage msg = extractAny(ymg.getWidth(), ymg.getHeight(), media);
+
+        if (hit == null)
+            cache(key, StageEvent.DECODE, -1, data, ymg);
+        return msg;
+    }
+
+    /**
+     * Decodes message from sidecar without knowing the imprint strength.
+     * 
+     * @param sc the sidecar
+     * @param passphrase carrier order key, null for top to bottom order
+     * @return the message with its imprint strength, null if there is none
+     */
+    static DecodedMessage decodeAuto(DCSidecar sc, String passphrase)
+                    throws InterruptedException
+    {
+        BitSource[] media = new BitSource[CapacityReport.ORDERS];
+        YCbCrImage ymg = (passphrase != null) ? planeImage(sc) : null;
+
+        for (int i = 0; i < media.length; i++)
+            media[i] = (ymg != null) ? ymg.mediumSource(i, passphrase) : sc
+                            .mediumSource(i);
+        return extractAny(sc.getWidth(), sc.getHeight(), media);
+    }
+
+    /**
+     * Returns image in transformed state holding DC plane of the sidecar,
+     * for reading carriers in keyed order (the sidecar bitmaps give the top
+     * to bottom order only).
+     * 
+     * @param sc the sidecar
+     */
+    private static YCbCrImage planeImage(DCSidecar sc)
+    {
+        double[] plane = new double[(sc.getWidth() / 8) * (sc.getHeight() / 8)];
+
+        for (int b = 0; b < plane.length; b++)
+            plane[b] = sc.getDC(b);
+        return new YCbCrImage(sc.getWidth(), sc.getHeight(), plane, null, null);
+    }
+
+    /**
+     * Decodes message from encoded image or sidecar. The transformed image
+     * is looked up in and stored to {@link TransformCache#shared}.
+     * 
+     * @param data contents of the file
+     * @param order strength of imprint
+     * @param frameOnly whether to accept framed message only
+     * @param passphrase carrier order key, null for top to bottom order
+     * @return the message, null if frameOnly is set and there is none
+     */
+    private static String decode(byte[] data, int order, boolean frameOnly,
+                    String passphrase) throws IOException,
+                    InterruptedException
+    {
+        if (DCSidecar.isSidecar(data))
+            return decode(new DCSidecar(ByteBuffer.wrap(data)), order,
+                            frameOnly, passphrase);
+
+        String key = lookupKey(StageEvent.DECODE, order, data);
+        TransformCache.Entry hit = cached(key);
+        YCbCrImage ymg = (hit != null) ? hit.image(null) : transform(
+                        StageEvent.DECODE, order, read(StageEvent.DECODE,
+                                        order, data), true);
+        String msg = extract(ymg.getWidth(), ymg.getHeight(), order, ymg
+                        .mediumSource(order, passphrase), frameOnly);
+
+        if (hit == null)
+            cache(key, StageEvent.DECODE, order, data, ymg);
+        return msg;
+    }
+
+    /**
+     * Decodes message from image.
+     * 
+     * @param rmg the image
+     * @param order strength of imprint
+     * @return extracted message
+     */
+    public static String decode(RGBImage rmg, int order)
+    {
+        YCbCrImage ymg = transform(StageEvent.DECODE, order, rmg, true);
+
+        return extract(ymg.getWidth(), ymg.getHeight(), order, ymg
+                        .mediumSource(order), false);
+    }
+
+    /**
+     * Decodes message from sidecar.
+     * 
+     * @param sc the sidecar
+     * @param order strength of imprint
+     * @param frameOnly whether to accept framed message only
+     * @param passphrase carrier order key, null for top to bottom order
+     * @return the message, null if frameOnly is set and there is none
+     */
+    static String decode(DCSidecar sc, int order, boolean frameOnly,
+                    String passphrase)
+    {
+        BitSource medium = (passphrase != null) ? planeImage(sc)
+                        .mediumSource(order, passphrase) : sc
+                        .mediumSource(order);
+
+        return extract(sc.getWidth(), sc.getHeight(), order, medium,
+                        frameOnly);
+    }
+
+    /**
+     * Decodes message from bits of the medium read up to the end of the
+     * message, emits the extract stage event.
+     * 
+     * @param wid width of the image the medium comes from
+     * @param hgt height of the image the medium comes from
+     * @param order strength of imprint
+     * @param medium bits of the medium
+     * @param frameOnly whether to accept framed message only, see
+     *        {@link StegCodec#readFrame}
+     * @return the message, null if frameOnly is set and there is none
+     */
+    static String extract(int wid, int hgt, int order, BitSource medium,
+                    boolean frameOnly)
+    {
+        StageEvent ev = new StageEvent(StageEvent.DECODE, StageEvent.EXTRACT,
+                        order).size(wid, hgt);
+        CountingSource counted = new CountingSource(medium);
+        String msg = frameOnly ? StegCodec.readFrame(counted) : StegCodec
+                        .decodeMessage(counted);
+
+        ev.bits = counted.count;
+        ev.bytes = (msg != null) ? msg.length() : 0;
+        ev.commit();
+        return msg;
+    }
+
+    /**
+     * Decodes message from the medium of each imprint strength concurrently
+     * and picks the one that validates: framed message with valid CRC first,
+     * then message followed by whole terminator, the lower strength if more
+     * of them do. Emits the extract stage event for every strength.
+     * 
+     * @param wid width of the image the media come from
+     * @param hgt height of the image the media come from
+     * @param media medium of each imprint strength, all of one image; media
+     *        that are {@link Closeable} are closed when read
+     * @return the message, null if no medium holds one
+     */
+    static DecodedMessage extractAny(final int wid, final int hgt,
+                    final BitSource[] media) throws InterruptedException
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(media.length);
+        List<Future<DecodedMessage>> found = new ArrayList<Future<DecodedMessage>>();
+
+        try
+        {
+            for (int i = 0; i < media.length; i++)
+            {
+                final int order = i;
+
+                found.add(pool.submit(new Callable<DecodedMessage>()
+                {
+                    public DecodedMessage call() throws IOException
+                    {
+                        try
+                        {
+                            return candidate(wid, hgt, order, media[order]);
+                        } finally
+                        {
+                            // lets media sharing data release it early
+                            if (media[order] instanceof Closeable)
+                                ((Closeable) media[order]).close();
+                        }
+                    }
+                }));
+            }
+
+            DecodedMessage best = null;
+            for (Future<DecodedMessage> f : found)
+            {
+                DecodedMessage m;
+
+                try
+                {
+                    m = f.get();
+                } catch (ExecutionException e)
+                {
+                    if (e.getCause() instanceof Error)
+                        throw (Error) e.getCause();
+                    if (e.getCause() instanceof RuntimeException)
+                        throw (RuntimeException) e.getCause();
+                    throw new IllegalStateException(e.getCause());
+                }
+                if (m != null && (best == null || m.isFramed() && !best.isFramed()))
+                    best = m;
+            }
+            return best;
+        } finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Decodes message from medium of one imprint strength, emits the extract
+     * stage event.
+     * 
+     * @return the message if it is framed or terminated, null otherwise
+     */
+    private static DecodedMessage candidate(int wid, int hgt, int order,
+                    BitSource medium)
+    {
+        StageEvent ev = new StageEvent(StageEvent.DECODE, StageEvent.EXTRACT,
+                        order).size(wid, hgt);
+        CountingSource counted = new CountingSource(medium);
+        int[] found = new int[1];
+        String msg = StegCodec.decodeMessage(counted, found);
+
+        ev.bits = counted.count;
+        ev.bytes = msg.length();
+        ev.commit();
+
+        if (found[0] == StegCodec.FOUND_NONE)
+            return null;
+        return new DecodedMessage(order, msg,
+                        found[0] == StegCodec.FOUND_FRAME);
+    }
+
+    /**
+     * Returns contents of a file.
+     */
+    private static byte[] readFile(String fname) throws IOException
+    {
+        InputStream in = new FileInputStream(fname);
+
+        try
+        {
+            return readAll(in);
+        } finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads stream to the end.
+     */
+    private static byte[] readAll(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        byte[] buf = new byte[1 << 16];
+        int n;
+
+        while ((n = in.read(buf)) > 0)
+            data.write(buf, 0, n);
+        return data.toByteArray();
+    }
+
+    /**
+     * Decodes image, emits the read stage event.
+     * 
+     * @param op operation, see {@link StageEvent}
+     * @param order strength of imprint, -1 for analysis
+     * @param data contents of the image file
+     */
+    private static RGBImage read(String op, int order, byte[] data)
+                    throws IOException, InterruptedException
+    {
+        StageEvent ev = new StageEvent(op, StageEvent.READ, order);
+        RGBImage rmg = new RGBImage(new ByteArrayInputStream(data));
+
+        ev.size(rmg.getWidth(), rmg.getHeight());
+        ev.bytes = data.length;
+        ev.commit();
+        return rmg;
+    }
+
+    /**
+     * Maps sidecar file, emits the read stage event.
+     * 
+     * @param op operation, see {@link StageEvent}
+     * @param order strength of imprint, -1 for analysis
+     * @param fname sidecar filename
+     */
+    private static DCSidecar mapSidecar(String op, int order, String fname)
+                    throws IOException
+    {
+        StageEvent ev = new StageEvent(op, StageEvent.READ, order);
+        DCSidecar sc = DCSidecar.map(new File(fname));
+
+        ev.size(sc.getWidth(), sc.getHeight());
+        ev.bytes = new File(fname).length();
+        ev.commit();
+        return sc;
+    }
+
+    /**
+     * Writes image in png format, emits the write stage event.
+     * 
+     * @param rmg the image
+     * @param order strength of imprint
+     * @param out stream to write to, not closed
+     */
+    private static void write(RGBImage rmg, int order, OutputStream out)
+                    throws IOException
+    {
+        StageEvent ev = new StageEvent(StageEvent.ENCODE, StageEvent.WRITE,
+                        order).size(rmg.getWidth(), rmg.getHeight());
+        CountingOutputStream counter = new CountingOutputStream(out);
+
+        rmg.Save(counter, "png");
+        counter.flush();
+        ev.bytes = counter.count;
+        ev.commit();
+    }
+
+    /**
+     * Computes cache key of encoded image, emits the cache lookup stage
+     * event.
+     * 
+     * @param op operation, see {@link StageEvent}
+     * @param order strength of imprint, -1 for analysis
+     * @param data contents of the image file
+     * @return the key, null if the cache is disabled
+     */
+    private static String cacheKey(String op, int order, byte[] data)
+    {
+        if (!TransformCache.shared().isEnabled())
+            return null;
+
+        StageEvent ev = new StageEvent(op, StageEvent.CACHE, order);
+        String key = TransformCache.key(data);
+
+        ev.bytes = data.length;
+        ev.commit();
+        return key;
+    }
+
+    /**
+     * Computes cache key for looking the image up, see {@link #cacheKey}.
+     * Nothing can be found in empty cache, the key is then null and computed
+     * only if there is something to store, see
+     * {@link #cache(String, String, int, byte[], YCbCrImage)}.
+     */
+    private static String lookupKey(String op, int order, byte[] data)
+    {
+        return (TransformCache.shared().size() > 0) ? cacheKey(op, order,
+                        data) : null;
+    }
+
+    /**
+     * Returns cached transformed image, null if there is none or key is null.
+     */
+    private static TransformCache.Entry cached(String key)
+    {
+        return (key != null) ? TransformCache.shared().get(key) : null;
+    }
+
+    /**
+     * Stores transformed image to cache, if key is not null and the image is
+     * transformed completely (lazy transform of a short message stops at the
+     * top of the image). Must be called before the reverse transform.
+     */
+    private static void cache(String key, YCbCrImage ymg)
+    {
+        if (key != null && ymg.isFullyTransformed())
+            TransformCache.shared().put(key, new TransformCache.Entry(ymg));
+    }
+
+    /**
+     * Stores transformed image to cache as {@link #cache(String, YCbCrImage)}
+     * does, computing the key if {@link #lookupKey} did not. Images
+     * transformed only partly are not hashed at all.
+     * 
+     * @param key the key from {@link #lookupKey}, may be null
+     * @param op operation, see {@link StageEvent}
+     * @param order strength of imprint, -1 for analysis
+     * @param data contents of the image file
+     * @param ymg the image
+     */
+    private static void cache(String key, String op, int order, byte[] data,
+                    YCbCrImage ymg)
+    {
+        if (ymg.isFullyTransformed())
+            cache((key != null) ? key : cacheKey(op, order, data), ymg);
+    }
+
+    /**
+     * Converts image to YCbCr and transforms it, emits the colour conversion
+     * and forward transform stage events. In luma-only
+     * {@link YCbCrImage.Transform#DC_ONLY} mode both are lazy and the work is
+     * done by the stage reading or writing the medium.
+     * 
+     * @param op operation, see {@link StageEvent}
+     * @param order strength of imprint, -1 for analysis
+     * @param rmg the image
+     * @param lumaOnly whether to compute luma only, see
+     *        {@link YCbCrImage#YCbCrImage(RGBImage, boolean)}
+     * @return the image after forward transform
+     */
+    static YCbCrImage transform(String op, int order, RGBImage rmg,
+                    boolean lumaOnly)
+    {
+        StageEvent ev = new StageEvent(op, StageEvent.COLOR, order).size(rmg
+                        .getWidth(), rmg.getHeight());
+        YCbCrImage ymg = new YCbCrImage(rmg, lumaOnly);
+        ev.commit();
+
+        ev = new StageEvent(op, StageEvent.FORWARD, order).size(
+                        rmg.getWidth(), rmg.getHeight());
         ymg.forwardTransform();
+        ev.commit();
+        return ymg;
+    }
+
+    /**
+     * Transforms imprinted image back and converts it to RGB, emits the
+     * reverse transform and back conversion stage events.
+     * 
+     * @param op operation, see {@link StageEvent}
+     * @param order strength of imprint
+     * @param ymg the imprinted image
+     * @return the RGB image, the source of ymg in luma delta mode
+     */
+    static RGBImage reverse(String op, int order, YCbCrImage ymg)
+    {
+        StageEvent ev = new StageEvent(op, StageEvent.REVERSE, order).size(
+                        ymg.getWidth(), ymg.getHeight());
+        ymg.reverseTransform();
+        ev.commit();
 
-        String msg = StegCodec.extractMessage(ymg, order);
-        System.out.println(msg);
+        RGBImage rmg;
+        ev = new StageEvent(op, StageEvent.BACK_CONVERSION, order).size(ymg
+                        .getWidth(), ymg.getHeight());
+        if (ymg.isLumaOnly())
+        {
+            rmg = ymg.getSource();
+            rmg.addLuma(ymg);
+        } else
+            rmg = new RGBImage(ymg);
+        ev.commit();
+        return rmg;
+    }
+
+    /**
+     * Bit source counting bits read.
+     */
+    private static class CountingSource implements BitSource
+    {
+        private final BitSource src;
+
+        long count;
+
+        CountingSource(BitSource src)
+        {
+            this.src = src;
+        }
+
+        public boolean next() throws EndOfMediumException
+        {
+            boolean b = src.next();
+
+            count++;
+            return b;
+        }
+    }
+
+    /**
+     * Output stream counting bytes written.
+     */
+    private static class CountingOutputStream extends FilterOutputStream
+    {
+        long count;
+
+        CountingOutputStream(OutputStream out)
+        {
+            super(out);
+        }
+
+        public void write(int b) throws IOException
+        {
+            out.write(b);
+            count++;
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            out.write(b, off, len);
+            count += len;
+        }
     }
 
     /**
@@ -94,14 +1202,24 @@ public class DCSteg
     {
         if (args.length < 2)
         {
-            System.err.println("DCSteg <command> <image_in> [imprint_strength] [image_out] [message]\n"
-                + "(imprint_strength is mandatory for 'e' and 'd' commands)\n\n"
+            System.err.println("DCSteg <command> <image_in> [imprint_strength] [image_out] [message] [passphrase]\n"
+                + "DCSteg b <dir_in> <imprint_strength> <dir_out> <message>\n"
+                + "DCSteg b <manifest.csv|manifest.jsonl>\n"
+                + "DCSteg s <port>\n"
+                + "DCSteg c <image_in> <sidecar_out>\n"
+                + "(imprint_strength is mandatory for 'e' and 'm' commands, 'd' finds it if it is 'auto' or missing)\n"
+                + "(passphrase follows the message for 'e', imprint_strength for 'd' and 'm')\n\n"
                 + "Commands:\n"
                 + "a  - image analysis, computes how many bits/bytes are available for message in given image\n"
                 + "e  - encode message in the image\n"
-                + "d  - decode message from image\n\n"
+                + "d  - decode message from image\n"
+                + "m  - check for framed message, prints it and exits with 0 if found, exits with 6 if not\n"
+                + "b  - batch encode, all images in a directory or rows (input, output, order, message) of a manifest\n"
+                + "c  - create sidecar file with DC coefficients of the image, 'a' and 'd' accept it in place of the image\n"
+                + "s  - run HTTP service on local port, endpoints /analyze, /encode?order=N&message=M, /decode?order=N, /detect?order=N take the image as POST body\n\n"
                 + "image_in, image_out - input and output image filenames (output is in png format)\n"
-                + "imprint_strength - what bit order to use to imprint the message, run analysis first to find out the available space\n");
+                + "imprint_strength - what bit order to use to imprint the message, run analysis first to find out the available space\n"
+                + "passphrase - optional key spreading the message over the image in pseudo-random order, needed to decode it\n");
             System.exit(255);
         }
         try
@@ -116,17 +1234,53 @@ public class DCSteg
                 case 'e':
                     System.err.println("Encoding message...");
                     Encode(args[1], args[3], Integer.valueOf(args[2])
-                                                    .intValue(), args[4]);
+                                                    .intValue(), args[4],
+                                    args.length > 5 ? args[5] : null);
                     break;
                 case 'd':
                     System.err.println("Decoding message...");
-                    Decode(args[1], Integer.valueOf(args[2]).intValue());
+                    if (args.length < 3 || args[2].equalsIgnoreCase("auto"))
+                    {
+                        if (!DecodeAuto(args[1], args.length > 3 ? args[3]
+                                        : null))
+                            System.exit(6);
+                    } else
+                        Decode(args[1], Integer.valueOf(args[2]).intValue(),
+                                        args.length > 3 ? args[3] : null);
+                    break;
+                case 'm':
+                    if (!Detect(args[1], Integer.valueOf(args[2]).intValue(),
+                                    args.length > 3 ? args[3] : null))
+                        System.exit(6);
+                    break;
+                case 'b':
+                    int failed;
+
+                    if (args.length >= 5)
+                        failed = BatchRunner.runDirectory(args[1], Integer
+                                        .valueOf(args[2]).intValue(), args[3],
+                                        args[4]);
+                    else
+                        failed = BatchRunner.runManifest(args[1]);
+                    if (failed > 0)
+                        System.exit(5);
+                    break;
+                case 'c':
+                    System.err.println("Creating sidecar...");
+                    Sidecar(args[1], args[2]);
+                    break;
+                case 's':
+                    WatermarkServer server = new WatermarkServer(Integer
+                                    .valueOf(args[1]).intValue());
+                    server.start();
+                    System.err.println("Listening on port "
+                                    + server.getPort());
                     break;
             }
         } catch (NumberFormatException e)
         {
             System.err
-                      .println("Argument passed as imprint strength cannot be converted to integer");
+                      .println("Argument passed as imprint strength or port cannot be converted to integer");
             System.exit(1);
         } catch (IOException e)
         {
@@ -140,6 +1294,10 @@ public class DCSteg
         {
             System.err.println("Not enough space for the message in the image");
             System.exit(4);
+        } catch (IllegalArgumentException e)
+        {
+            System.err.println(e.getMessage());
+            System.exit(1);
         }
     }
 }
@@ -0,0 +1,48 @@
+/*
+ * Part of DCSteg steganographic/watermarking utility.
+ * Distributed under GPL v2 license.
+ */
+package Stegano;
+
+/**
+ * Engine computing forward and inverse 8x8 DCT on flat arrays. The block is
+ * stored row by row, i.e. the sample at column x and row y is at index
+ * y * 8 + x. Forward transform includes the level shift (-128), inverse
+ * transform adds it back, same as {@link Stegano.Block8x8.CosineTransform}.
+ *
+ * Implementations differ only in rounding of the floating point arithmetic.
+ * Any engine must stay within {@link #TOLERANCE} of the reference matrix
+ * implementation for every coefficient (pixel) of a block whose samples are in
+ * range 0-255. After quantization the DC coefficient is at most 16 times
+ * smaller, so the imprinted bits (integer part of the quantized DC) are the
+ * same unless the DC lies within the tolerance of an integer boundary.
+ *
+ * @author Ondrej Mikle
+ * @version 0.1
+ */
+public interface DCTEngine
+{
+    /**
+     * Maximal allowed absolute difference of a coefficient (pixel) computed
+     * by an engine from the one computed by the reference implementation.
+     */
+    double TOLERANCE = 1e-9;
+
+    /**
+     * Forward DCT, computed in place.
+     *
+     * @param block 64 pixel values, replaced by DCT coefficients
+     * @param scratch 64 doubles of temporary storage, contents are undefined
+     *        after the call
+     */
+    void forward(double[] block, double[] scratch);
+
+    /**
+     * Inverse DCT, computed in place.
+     *
+     * @param block 64 DCT coefficients, replaced by pixel values
+     * @param scratch 64 doubles of temporary storage, contents are undefined
+     *        after the call
+     */
+    void reverse(double[] block, double[] scratch);
+}
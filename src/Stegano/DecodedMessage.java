@@ -0,0 +1,62 @@
+/*
+ * Part of DCSteg steganographic/watermarking utility.
+ * Distributed under GPL v2 license.
+ */
+package Stegano;
+
+/**
+ * Message found by decoding with imprint strength detection, see
+ * {@link DCSteg#decodeAuto(byte[])}: the message and the imprint strength
+ * whose medium holds it.
+ *
+ * @author Ondrej Mikle
+ * @version 0.1
+ */
+public class DecodedMessage
+{
+    private final int order;
+
+    private final String message;
+
+    private final boolean framed;
+
+    /**
+     * Creates the result.
+     *
+     * @param order imprint strength
+     * @param message the message
+     * @param framed true if the message was found in a frame with valid
+     *        CRC, false if it is terminated by NULL bytes
+     */
+    public DecodedMessage(int order, String message, boolean framed)
+    {
+        this.order = order;
+        this.message = message;
+        this.framed = framed;
+    }
+
+    /**
+     * Returns imprint strength of the message.
+     */
+    public int getOrder()
+    {
+        return order;
+    }
+
+    /**
+     * Returns the message.
+     */
+    public String getMessage()
+    {
+        return message;
+    }
+
+    /**
+     * Returns true if the message was found in a frame with valid CRC, false
+     * if it is in the older format terminated by NULL bytes.
+     */
+    public boolean isFramed()
+    {
+        return framed;
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Part of DCSteg steganographic/watermarking utility.
+ * Distributed under GPL v2 license.
+ */
+package Stegano;
+
+/**
+ * Fast separable DCT using the Arai-Agui-Nakajima (AAN) factorization, the
+ * same one used by the floating point DCT of IJG libjpeg. Each 1-D transform
+ * takes 5 multiplications and 29 additions instead of 64 multiplications of
+ * the matrix version. The AAN butterflies produce scaled coefficients, the
+ * scaling is folded into one multiplication per coefficient, so the result is
+ * the same orthonormal DCT as computed by
+ * {@link Stegano.Block8x8.CosineTransform} (within
+ * {@link Stegano.DCTEngine#TOLERANCE}).
+ *
+ * The transform works in place and needs no temporary storage, the scratch
+ * arrays are ignored.
+ *
+ * @author Ondrej Mikle
+ * @version 0.1
+ */
+public class FastCosineTransform implements DCTEngine
+{
+    /**
+     * Default block size
+     */
+    private final static int N = 8;
+
+    /**
+     * Butterfly constants, cos(k*pi/16) based.
+     */
+    private static final double C4 = Math.cos(4 * Math.PI / 16), // 0.707106781
+        C6 = Math.cos(6 * Math.PI / 16), // 0.382683433
+        C2mC6 = Math.cos(2 * Math.PI / 16) - C6, // 0.541196100
+        C2pC6 = Math.cos(2 * Math.PI / 16) + C6, // 1.306562965
+        SQRT2 = Math.sqrt(2.0), // 1.414213562
+        C2x2 = 2 * Math.cos(2 * Math.PI / 16), // 1.847759065
+        C2mC6x2 = 2 * C2mC6, // 1.082392200
+        C2pC6x2 = 2 * C2pC6; // 2.613125930
+
+    /**
+     * Output scale of forward transform, one multiplier per coefficient.
+     */
+    private final double[] fwdScale = new double[N * N];
+
+    /**
+     * Input scale of inverse transform, one multiplier per coefficient.
+     */
+    private final double[] invScale = new double[N * N];
+
+    /**
+     * Creates the transform object and precomputes scaling factors.
+     */
+    public FastCosineTransform()
+    {
+        double[] aan = new double[N];
+
+        aan[0] = 1.0;
+        for (int k = 1; k < N; k++)
+            aan[k] = Math.cos(k * Math.PI / 16) * SQRT2;
+
+        for (int v = 0; v < N; v++)
+            for (int u = 0; u < N; u++)
+            {
+                fwdScale[v * N + u] = 1.0 / (aan[v] * aan[u] * 8.0);
+                invScale[v * N + u] = aan[v] * aan[u] / 8.0;
+            }
+    }
+
+    /**
+     * Forward DCT, computed in place.
+     *
+     * @param block pixel block, replaced by DCT coefficients
+     * @param scratch ignored, may be null
+     */
+    public void forward(double[] block, double[] scratch)
+    {
+        for (int i = 0; i < N * N; i++)
+            block[i] -= 128;
+
+        // rows, then columns
+        for (int off = 0; off < N * N; off += N)
+            forward1D(block, off, 1);
+        for (int off = 0; off < N; off++)
+            forward1D(block, off, N);
+
+        for (int i = 0; i < N * N; i++)
+            block[i] *= fwdScale[i];
+    }
+
+    /**
+     * Inverse DCT, computed in place.
+     *
+     * @param block DCT coefficients, replaced by pixel block
+     * @param scratch ignored, may be null
+     */
+    public void reverse(double[] block, double[] scratch)
+    {
+        for (int i = 0; i < N * N; i++)
+            block[i] *= invScale[i];
+
+        // columns, then rows
+        for (int off = 0; off < N; off++)
+            reverse1D(block, off, N);
+        for (int off = 0; off < N * N; off += N)
+            reverse1D(block, off, 1);
+
+        for (int i = 0; i < N * N; i++)
+            block[i] += 128;
+    }
+
+    /**
+     * One-dimensional scaled forward DCT of 8 samples.
+     *
+     * @param d data array
+     * @param off index of the first sample
+     * @param step distance between samples (1 for a row, 8 for a column)
+     */
+    private static void forward1D(double[] d, int off, int step)
+    {
+        int i0 = off, i1 = i0 + step, i2 = i1 + step, i3 = i2 + step,
+            i4 = i3 + step, i5 = i4 + step, i6 = i5 + step, i7 = i6 + step;
+
+        double tmp0 = d[i0] + d[i7], tmp7 = d[i0] - d[i7];
+        double tmp1 = d[i1] + d[i6], tmp6 = d[i1] - d[i6];
+        double tmp2 = d[i2] + d[i5], tmp5 = d[i2] - d[i5];
+        double tmp3 = d[i3] + d[i4], tmp4 = d[i3] - d[i4];
+
+        // even part
+        double tmp10 = tmp0 + tmp3, tmp13 = tmp0 - tmp3;
+        double tmp11 = tmp1 + tmp2, tmp12 = tmp1 - tmp2;
+
+        d[i0] = tmp10 + tmp11;
+        d[i4] = tmp10 - tmp11;
+
+        double z1 = (tmp12 + tmp13) * C4;
+        d[i2] = tmp13 + z1;
+        d[i6] = tmp13 - z1;
+
+        // odd part
+        tmp10 = tmp4 + tmp5;
+        tmp11 = tmp5 + tmp6;
+        tmp12 = tmp6 + tmp7;
+
+        double z5 = (tmp10 - tmp12) * C6;
+        double z2 = C2mC6 * tmp10 + z5;
+        double z4 = C2pC6 * tmp12 + z5;
+        double z3 = tmp11 * C4;
+
+        double z11 = tmp7 + z3, z13 = tmp7 - z3;
+
+        d[i5] = z13 + z2;
+        d[i3] = z13 - z2;
+        d[i1] = z11 + z4;
+        d[i7] = z11 - z4;
+    }
+
+    /**
+     * One-dimensional scaled inverse DCT of 8 coefficients.
+     *
+     * @param d data array
+     * @param off index of the first coefficient
+     * @param step distance between coefficients (1 for a row, 8 for a column)
+     */
+    private static void reverse1D(double[] d, int off, int step)
+    {
+        int i0 = off, i1 = i0 + step, i2 = i1 + step, i3 = i2 + step,
+            i4 = i3 + step, i5 = i4 + step, i6 = i5 + step, i7 = i6 + step;
+
+        // even part
+        double tmp10 = d[i0] + d[i4], tmp11 = d[i0] - d[i4];
+        double tmp13 = d[i2] + d[i6];
+        double tmp12 = (d[i2] - d[i6]) * SQRT2 - tmp13;
+
+        double tmp0 = tmp10 + tmp13, tmp3 = tmp10 - tmp13;
+        double tmp1 = tmp11 + tmp12, tmp2 = tmp11 - tmp12;
+
+        // odd part
+        double z13 = d[i5] + d[i3], z10 = d[i5] - d[i3];
+        double z11 = d[i1] + d[i7], z12 = d[i1] - d[i7];
+
+        double tmp7 = z11 + z13;
+        tmp11 = (z11 - z13) * SQRT2;
+
+        double z5 = (z10 + z12) * C2x2;
+        tmp10 = C2mC6x2 * z12 - z5;
+        tmp12 = -C2pC6x2 * z10 + z5;
+
+        double tmp6 = tmp12 - tmp7;
+        double tmp5 = tmp11 - tmp6;
+        double tmp4 = tmp10 + tmp5;
+
+        d[i0] = tmp0 + tmp7;
+        d[i7] = tmp0 - tmp7;
+        d[i1] = tmp1 + tmp6;
+        d[i6] = tmp1 - tmp6;
+        d[i2] = tmp2 + tmp5;
+        d[i5] = tmp2 - tmp5;
+        d[i4] = tmp3 + tmp4;
+        d[i3] = tmp3 - tmp4;
+    }
+}
@@ -9,18 +9,24 @@
 
 package Stegano;
 
-import java.util.BitSet;
-
 /**
  * Codec for Hamming(7,4) self-correcting code (7 bits of code encode 4 bits of
- * actual data). It works, although it is definitely not very optimal
- * implementation of Hamming code.
+ * actual data). Encoding and decoding are table lookups, the tables are
+ * computed at class initialization from the generator and check matrices by
+ * the straightforward (slow) matrix routines, which thus define the code.
+ * As {@link PayloadCodec} (id 0) it encodes each byte into 14 bits, see
+ * {@link #encodeByte}.
  *
  * @author Ondrej Mikle
  * @version 0.1
  */
-public class HammingCode
+public class HammingCode implements PayloadCodec
 {
+    /**
+     * Codec id in the frame header.
+     */
+    public static final int ID = 0;
+
     /**
      * Kernel of generator matrix H creates the Hamming code.
      */
@@ -35,11 +41,42 @@ public class HammingCode
                     { 0, 0, 0, 1, 1, 1, 1 } };
 
     /**
-     * Encodes the lower nybble (4 bits) into respective Hamming codeword.
+     * Codeword of each nybble, bit i is bit i of the codeword.
+     */
+    private static final int[] ENCODE = new int[16];
+
+    /**
+     * Decoded (corrected) nybble of each 7-bit word, bit 4 is set if the word
+     * had to be corrected.
+     */
+    private static final byte[] DECODE = new byte[128];
+
+    /**
+     * Flag in {@link #DECODE} marking corrected word.
+     */
+    private static final int CORRECTED = 0x10;
+
+    static
+    {
+        for (int n = 0; n < 16; n++)
+            ENCODE[n] = encodeNybble((byte) n);
+
+        for (int w = 0; w < 128; w++)
+        {
+            DECODE[w] = decodeNybble(w);
+            if (ENCODE[DECODE[w]] != w)
+                DECODE[w] |= CORRECTED;
+        }
+    }
+
+    /**
+     * Encodes the lower nybble (4 bits) into respective Hamming codeword, bit
+     * i of the result is bit i of the codeword. Used to build
+     * {@link #ENCODE}.
      */
-    private static CountedBitSet encodeNybble(byte b)
+    private static int encodeNybble(byte b)
     {
-        CountedBitSet out = new CountedBitSet();
+        int out = 0;
 
         for (int i = 0; i < 7; i++)
         {
@@ -53,7 +90,7 @@ public class HammingCode
             }
 
             sum &= 1; // computation in GF(2)
-            out.set(i, (sum != 0));
+            out |= sum << i;
 
         }
         return out;
@@ -70,11 +107,11 @@ public class HammingCode
     /**
      * Decodes Hamming codeword into data. The assumption is that there is at
      * most one error, otherwise the code cannot correct the error (though
-     * you'll still get some result).
+     * you'll still get some result). Used to build {@link #DECODE}.
      * 
-     * @param w Hamming codeword
+     * @param w Hamming codeword, bit i is bit i of the codeword
      */
-    private static byte decodeNybble(BitSet w)
+    private static byte decodeNybble(int w)
     {
         byte[] c = new byte[3];
 
@@ -85,7 +122,7 @@ public class HammingCode
 
             for (int j = 0; j < 7; j++)
             {
-                sum += H[i][j] * tobit(w.get(j));
+                sum += H[i][j] * ((w >> j) & 1);
             }
             c[i] = (byte) (sum & 1); // back into GF(2)
         }
@@ -106,7 +143,7 @@ public class HammingCode
             // first four bits of w are the data bits
             for (int i = 0; i < 4; i++)
             {
-                out |= (byte) (tobit(w.get(i)) << i);
+                out |= (byte) (((w >> i) & 1) << i);
             }
             return out;
         }
@@ -128,11 +165,11 @@ public class HammingCode
             {
                 byte out = 0;
 
-                w.flip(i); // flip given bit
+                w ^= 1 << i; // flip given bit
                 for (int k = 0; k < 4; k++)
                 {
                     // first four bits are the data bits
-                    out |= (byte) (tobit(w.get(k)) << k);
+                    out |= (byte) (((w >> k) & 1) << k);
                 }
                 return out;
             }
@@ -143,6 +180,73 @@ public class HammingCode
         return -1;
     }
 
+    /**
+     * Encodes data bytes into Hamming codewords. Each byte becomes 14 bits:
+     * codeword of the lower nybble followed by codeword of the higher nybble.
+     * 
+     * @param data bytes to encode
+     * @return encoded bits
+     */
+    public static BitBuffer encode(byte[] data)
+    {
+        BitBuffer hc = new BitBuffer(data.length * 14);
+
+        for (int i = 0; i < data.length; i++)
+            hc.append(encodeByte(data[i]), 14);
+
+        return hc;
+    }
+
+    /**
+     * Returns the 14 bits encoding one byte, lower nybble codeword in bits
+     * 0-6, higher nybble codeword in bits 7-13.
+     * 
+     * @param b the byte
+     */
+    public static int encodeByte(byte b)
+    {
+        return ENCODE[b & 0x0f] | (ENCODE[(b >> 4) & 0x0f] << 7);
+    }
+
+    /**
+     * Decodes one byte from 14 bits, corrects single-bit error in each of the
+     * two codewords.
+     * 
+     * @param w 14 bits as produced by {@link #encodeByte}
+     * @return decoded byte in bits 0-7, bit 8 is set if lower codeword was
+     *         corrected, bit 9 if higher codeword was corrected
+     */
+    public static int decodeByte(int w)
+    {
+        int lo = DECODE[w & 0x7f], hi = DECODE[(w >> 7) & 0x7f];
+
+        return (lo & 0x0f) | ((hi & 0x0f) << 4) | ((lo & CORRECTED) << 4)
+                        | ((hi & CORRECTED) << 5);
+    }
+
+    /**
+     * Decodes bytes from Hamming codewords. Decodes out.length bytes or as
+     * many as there are whole 14-bit groups in code, whichever is less.
+     * 
+     * @param code encoded bits
+     * @param out decoded bytes
+     * @return number of codewords where an error was corrected
+     */
+    public static int decode(BitBuffer code, byte[] out)
+    {
+        int n = Math.min(out.length, code.size() / 14), corrected = 0;
+
+        for (int i = 0, j = 0; j < n; i += 14, j++)
+        {
+            int d = decodeByte(code.read(i, 14));
+
+            out[j] = (byte) d;
+            corrected += ((d >> 8) & 1) + ((d >> 9) & 1);
+        }
+
+        return corrected;
+    }
+
     /**
      * Takes message and encodes it into Hamming codewords.
      * 
@@ -152,19 +256,9 @@ public class HammingCode
      * @param msg message to encode
      * @return message encoded with Hamming code
      */
-    public static CountedBitSet Encode(String msg)
+    public static BitBuffer Encode(String msg)
     {
-        byte[] mb = msg.getBytes();
-        CountedBitSet hc = new CountedBitSet();
-
-        for (int i = 0; i < mb.length; i++)
-        {
-            // store lower nybble, then higher nybble
-            hc.append(encodeNybble((byte) (mb[i] & 0x0f)));
-            hc.append(encodeNybble((byte) (mb[i] >> 4)));
-        }
-
-        return hc;
+        return encode(msg.getBytes());
     }
 
     /**
@@ -175,23 +269,99 @@ public class HammingCode
      * @param code message in Hamming code
      * @return decoded message
      */
-    public static String Decode(CountedBitSet code)
+    public static String Decode(BitBuffer code)
     {
         // we take bits in multiples of 14, rest is ignored (because they just
         // align the 8-bit byte boundary)
-        int usedbits = code.bits() / 14;
-        byte[] out = new byte[usedbits];
+        byte[] out = new byte[code.size() / 14];
 
-        // loop steps two nybbles each time, i.e. we decode one data byte in
-        // each iteration
-        for (int i = 0, j = 0; j < usedbits; i += 14, j++)
-        {
-            BitSet lo = code.get(i, i + 7), hi = code.get(i + 7, i + 14);
+        decode(code, out);
+        return new String(out);
+    }
 
-            out[j] = (byte) (decodeNybble(lo) | (byte) ((decodeNybble(hi) << 4)));
-        }
+    /**
+     * Returns codec id {@link #ID}.
+     */
+    public int getId()
+    {
+        return ID;
+    }
 
-        return new String(out);
+    /**
+     * Returns codec name "hamming".
+     */
+    public String getName()
+    {
+        return "hamming";
+    }
+
+    /**
+     * Returns number of bits encoding given number of bytes, 14 per byte.
+     * 
+     * @param bytes payload length
+     */
+    public int codedBits(int bytes)
+    {
+        return 14 * bytes;
+    }
+
+    /**
+     * Returns number of whole bytes encoded in given number of bits.
+     * 
+     * @param bits available bits
+     */
+    public int maxBytes(int bits)
+    {
+        return bits / 14;
+    }
+
+    /**
+     * Encodes bytes as {@link #encode(byte[])} does, appending to out.
+     * 
+     * @param data bytes to encode
+     * @param out bits of the medium
+     */
+    public void encodePayload(byte[] data, BitBuffer out)
+    {
+        for (int i = 0; i < data.length; i++)
+            out.append(encodeByte(data[i]), 14);
+    }
+
+    /**
+     * Reads 14 bits per byte and decodes them, single-bit error in each
+     * codeword is corrected.
+     * 
+     * @param src bits of the medium
+     * @param length number of bytes encoded
+     * @return decoded bytes
+     * @throws EndOfMediumException if the medium ends before all bytes are
+     *         read
+     */
+    public byte[] decodePayload(BitSource src, int length)
+                    throws EndOfMediumException
+    {
+        byte[] data = new byte[length];
+
+        for (int i = 0; i < length; i++)
+            data[i] = (byte) readByte(src);
+        return data;
+    }
+
+    /**
+     * Reads 14 bits from medium and decodes them into one byte.
+     *
+     * @param src bits of the medium
+     * @return the byte, with correction flags of {@link #decodeByte}
+     */
+    public static int readByte(BitSource src) throws EndOfMediumException
+    {
+        int w = 0;
+
+        for (int i = 0; i < 14; i++)
+            if (src.next())
+                w |= 1 << i;
+
+        return decodeByte(w);
     }
 
 }
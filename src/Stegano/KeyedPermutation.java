@@ -0,0 +1,184 @@
+/*
+ * Part of DCSteg steganographic/watermarking utility.
+ * Distributed under GPL v2 license.
+ */
+package Stegano;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Passphrase-keyed pseudo-random permutation of the range 0..n-1, used to
+ * spread message bits over the carriers of an image instead of filling them
+ * top to bottom. The permutation is a balanced Feistel network over the
+ * smallest even number of bits covering the range, values falling out of the
+ * range are encrypted again until they fall in (cycle walking). Neither
+ * direction needs a table, so memory use is constant and any index can be
+ * mapped on its own.
+ *
+ * Round keys are derived from SHA-256 of the UTF-8 encoded passphrase, the
+ * round function is the SplitMix64 finalizer of the round key and the half
+ * block. This hides the bits from plain top-to-bottom reading, it is not meant
+ * to resist a search over weak passphrases.
+ *
+ * @author Ondrej Mikle
+ * @version 0.1
+ */
+public class KeyedPermutation
+{
+    /**
+     * Number of Feistel rounds.
+     */
+    private static final int ROUNDS = 8;
+
+    private final int n;
+
+    /**
+     * Bits of one half of the Feistel block and mask of them.
+     */
+    private final int half;
+
+    private final long mask;
+
+    private final long[] keys = new long[ROUNDS];
+
+    /**
+     * Creates the permutation.
+     *
+     * @param passphrase the key
+     * @param n size of the permuted range
+     */
+    public KeyedPermutation(String passphrase, int n)
+    {
+        this.n = n;
+
+        int bits = 64 - Long.numberOfLeadingZeros(Math.max(n - 1, 1));
+        half = (bits + 1) / 2;
+        mask = (1L << half) - 1;
+
+        ByteBuffer h = ByteBuffer.wrap(digest(passphrase));
+        long[] seed = new long[4];
+        for (int i = 0; i < seed.length; i++)
+            seed[i] = h.getLong();
+        for (int r = 0; r < ROUNDS; r++)
+            keys[r] = mix(seed[r & 3] + r * 0x9E3779B97F4A7C15L);
+    }
+
+    /**
+     * Returns size of the permuted range.
+     */
+    public int size()
+    {
+        return n;
+    }
+
+    /**
+     * Returns the index i is mapped to.
+     *
+     * @param i index in range 0..n-1
+     */
+    public int permute(int i)
+    {
+        long x = check(i);
+
+        do
+            x = encrypt(x);
+        while (x >= n);
+        return (int) x;
+    }
+
+    /**
+     * Returns the index mapped to i, inverse of {@link #permute}.
+     *
+     * @param i index in range 0..n-1
+     */
+    public int inverse(int i)
+    {
+        long x = check(i);
+
+        do
+            x = decrypt(x);
+        while (x >= n);
+        return (int) x;
+    }
+
+    private long check(int i)
+    {
+        if (i < 0 || i >= n)
+            throw new IndexOutOfBoundsException("Index " + i + ", size " + n);
+        return i;
+    }
+
+    /**
+     * Feistel network over 2 * half bits.
+     */
+    private long encrypt(long x)
+    {
+        long l = x >>> half, r = x & mask;
+
+        for (int round = 0; round < ROUNDS; round++)
+        {
+            long t = l ^ f(round, r);
+
+            l = r;
+            r = t;
+        }
+        return (l << half) | r;
+    }
+
+    /**
+     * Inverse of {@link #encrypt}, the rounds in reverse order.
+     */
+    private long decrypt(long x)
+    {
+        long l = x >>> half, r = x & mask;
+
+        for (int round = ROUNDS - 1; round >= 0; round--)
+        {
+            long t = r ^ f(round, l);
+
+            r = l;
+            l = t;
+        }
+        return (l << half) | r;
+    }
+
+    /**
+     * Round function.
+     */
+    private long f(int round, long x)
+    {
+        return mix(keys[round] ^ x) & mask;
+    }
+
+    /**
+     * SplitMix64 finalizer, bijective mixing of 64 bits.
+     */
+    private static long mix(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Returns SHA-256 of the passphrase.
+     */
+    private static byte[] digest(String passphrase)
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256").digest(
+                            passphrase.getBytes("UTF-8"));
+        } catch (NoSuchAlgorithmException e)
+        {
+            // every JRE has SHA-256
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Part of DCSteg steganographic/watermarking utility.
+ * Distributed under GPL v2 license.
+ */
+package Stegano;
+
+/**
+ * Error-correcting code of the message bytes in a frame (see
+ * {@link StegCodec}). The codec is named by its id in the frame header, the
+ * header itself is always Hamming coded so that it can be read before the
+ * codec is known.
+ *
+ * Implementations must be stateless, one instance is shared by all threads.
+ *
+ * @author Ondrej Mikle
+ * @version 0.1
+ */
+public interface PayloadCodec
+{
+    /**
+     * Returns id of the codec written in the frame header, 0-255.
+     */
+    int getId();
+
+    /**
+     * Returns name of the codec, as accepted by
+     * {@link StegCodec#codecByName}.
+     */
+    String getName();
+
+    /**
+     * Returns number of medium bits needed to encode given number of bytes.
+     *
+     * @param bytes payload length
+     */
+    int codedBits(int bytes);
+
+    /**
+     * Returns maximal number of bytes whose encoding fits into given number
+     * of medium bits.
+     *
+     * @param bits available bits, not negative
+     */
+    int maxBytes(int bits);
+
+    /**
+     * Encodes bytes, appends {@link #codedBits}(data.length) bits to out.
+     *
+     * @param data bytes to encode
+     * @param out bits of the medium
+     */
+    void encodePayload(byte[] data, BitBuffer out);
+
+    /**
+     * Reads {@link #codedBits}(length) bits of medium and decodes them,
+     * correcting errors as far as the code allows.
+     *
+     * @param src bits of the medium
+     * @param length number of bytes encoded
+     * @return decoded bytes, uncorrectable errors are left in place
+     * @throws EndOfMediumException if the medium ends before all bits are
+     *         read
+     */
+    byte[] decodePayload(BitSource src, int length)
+                    throws EndOfMediumException;
+}
@@ -0,0 +1,272 @@
+/*
+ * Part of DCSteg steganographic/watermarking utility.
+ * Distributed under GPL v2 license.
+ */
+package Stegano;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes 8-bit RGB PNG image strip by strip, so that the whole image never
+ * has to be in memory ({@link javax.imageio.ImageIO} needs the whole
+ * image). Each row is filtered with the filter giving the smallest sum of
+ * absolute values (the usual PNG heuristic), compressed data is split into
+ * IDAT chunks as it comes out of the deflater.
+ *
+ * @author Ondrej Mikle
+ * @version 0.1
+ */
+public class PngStripWriter
+{
+    /**
+     * PNG file signature.
+     */
+    private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G',
+                    '\r', '\n', 0x1a, '\n' };
+
+    /**
+     * Maximal size of IDAT chunk data.
+     */
+    private static final int CHUNK = 1 << 16;
+
+    /**
+     * Buffers compressed data and writes it out as IDAT chunks.
+     */
+    private class ChunkStream extends OutputStream
+    {
+        private final byte[] buf = new byte[CHUNK];
+
+        private int len;
+
+        public void write(int b) throws IOException
+        {
+            if (len == CHUNK)
+                flushChunk();
+            buf[len++] = (byte) b;
+        }
+
+        public void write(byte[] b, int off, int n) throws IOException
+        {
+            while (n > 0)
+            {
+                if (len == CHUNK)
+                    flushChunk();
+
+                int c = Math.min(n, CHUNK - len);
+                System.arraycopy(b, off, buf, len, c);
+                len += c;
+                off += c;
+                n -= c;
+            }
+        }
+
+        void flushChunk() throws IOException
+        {
+            if (len > 0)
+                chunk("IDAT", buf, len);
+            len = 0;
+        }
+    }
+
+    /**
+     * Output file stream.
+     */
+    private final DataOutputStream out;
+
+    /**
+     * IDAT chunk buffer.
+     */
+    private final ChunkStream chunks = new ChunkStream();
+
+    /**
+     * Compressor of the filtered rows.
+     */
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+
+    private final DeflaterOutputStream zout = new DeflaterOutputStream(chunks,
+                    deflater, CHUNK);
+
+    /**
+     * Image dimensions.
+     */
+    private final int wid, hgt;
+
+    /**
+     * Number of rows written so far.
+     */
+    private int rows;
+
+    /**
+     * Previous and current raw row, filtered row candidates (index is the
+     * filter type, first byte is the filter type).
+     */
+    private byte[] prev, cur;
+
+    private final byte[][] filtered = new byte[5][];
+
+    /**
+     * Starts writing PNG image, writes the header.
+     *
+     * @param out stream to write to, closed by {@link #close}
+     * @param width image width
+     * @param height image height
+     */
+    public PngStripWriter(OutputStream out, int width, int height)
+                    throws IOException
+    {
+        this.out = new DataOutputStream(out);
+        wid = width;
+        hgt = height;
+
+        prev = new byte[wid * 3];
+        cur = new byte[wid * 3];
+        for (int f = 0; f < 5; f++)
+        {
+            filtered[f] = new byte[wid * 3 + 1];
+            filtered[f][0] = (byte) f;
+        }
+
+        this.out.write(SIGNATURE);
+
+        byte[] ihdr = new byte[13];
+        putInt(ihdr, 0, wid);
+        putInt(ihdr, 4, hgt);
+        ihdr[8] = 8; // bit depth
+        ihdr[9] = 2; // colour type RGB
+        // compression, filter and interlace methods are all 0
+        chunk("IHDR", ihdr, ihdr.length);
+    }
+
+    /**
+     * Writes all rows of a strip. Strips must come top to bottom and have
+     * the width of the image.
+     *
+     * @param strip the rows to write
+     * @throws IOException if the strip does not fit the image or writing fails
+     */
+    public void write(RGBImage strip) throws IOException
+    {
+        if (strip.getWidth() != wid || rows + strip.getHeight() > hgt)
+            throw new IOException("Strip does not fit the image");
+
+        for (int y = 0; y < strip.getHeight(); y++)
+        {
+            for (int x = 0, i = y * wid; x < wid; x++, i++)
+            {
+                cur[x * 3] = (byte) strip.R[i];
+                cur[x * 3 + 1] = (byte) strip.G[i];
+                cur[x * 3 + 2] = (byte) strip.B[i];
+            }
+
+            byte[] best = filter(rows == 0);
+            zout.write(best, 0, best.length);
+
+            byte[] t = prev;
+            prev = cur;
+            cur = t;
+            rows++;
+        }
+    }
+
+    /**
+     * Filters current row with all filters, returns the best one.
+     *
+     * @param first true for the first row (there is no previous row)
+     */
+    private byte[] filter(boolean first)
+    {
+        int n = wid * 3;
+        long[] cost = new long[5];
+
+        for (int i = 0; i < n; i++)
+        {
+            int x = cur[i] & 0xff;
+            int a = (i >= 3) ? cur[i - 3] & 0xff : 0;
+            int b = first ? 0 : prev[i] & 0xff;
+            int c = (i >= 3 && !first) ? prev[i - 3] & 0xff : 0;
+
+            int p = a + b - c, pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math
+                            .abs(p - c);
+            int paeth = (pa <= pb && pa <= pc) ? a : (pb <= pc) ? b : c;
+
+            store(0, i, x, cost);
+            store(1, i, x - a, cost);
+            store(2, i, x - b, cost);
+            store(3, i, x - ((a + b) >> 1), cost);
+            store(4, i, x - paeth, cost);
+        }
+
+        int best = 0;
+        for (int f = 1; f < 5; f++)
+            if (cost[f] < cost[best])
+                best = f;
+        return filtered[best];
+    }
+
+    /**
+     * Stores filtered byte of given filter and adds it to the filter's cost
+     * (absolute value of the byte taken as signed).
+     */
+    private void store(int f, int i, int v, long[] cost)
+    {
+        byte b = (byte) v;
+
+        filtered[f][i + 1] = b;
+        cost[f] += Math.abs((int) b);
+    }
+
+    /**
+     * Finishes the image and closes the output stream.
+     *
+     * @throws IOException if not all rows were written or writing fails
+     */
+    public void close() throws IOException
+    {
+        try
+        {
+            if (rows != hgt)
+                throw new IOException("Only " + rows + " of " + hgt
+                                + " rows written");
+            zout.finish();
+            chunks.flushChunk();
+            chunk("IEND", new byte[0], 0);
+        } finally
+        {
+            deflater.end();
+            out.close();
+        }
+    }
+
+    /**
+     * Writes one PNG chunk.
+     */
+    private void chunk(String type, byte[] data, int len) throws IOException
+    {
+        byte[] t = type.getBytes("US-ASCII");
+        CRC32 crc = new CRC32();
+
+        crc.update(t);
+        crc.update(data, 0, len);
+
+        out.writeInt(len);
+        out.write(t);
+        out.write(data, 0, len);
+        out.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * Stores big-endian int into array.
+     */
+    private static void putInt(byte[] b, int off, int v)
+    {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+}
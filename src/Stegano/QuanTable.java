@@ -30,6 +30,29 @@ public class QuanTable
                     { 49, 64, 78, 87, 103, 121, 120, 101 },
                     { 72, 92, 95, 98, 112, 100, 103, 99 } };
 
+    /**
+     * Quantizing matrix stored row by row, same layout as
+     * {@link Stegano.Block8x8#data}.
+     */
+    private static final int flat[] = new int[64];
+
+    static
+    {
+        for (int y = 0; y < 8; y++)
+            System.arraycopy(table[y], 0, flat, y * 8, 8);
+    }
+
+    /**
+     * Returns the quantizing coefficient at given position.
+     * 
+     * @param x column (horizontal frequency)
+     * @param y row (vertical frequency)
+     */
+    public int get(int x, int y)
+    {
+        return table[y][x];
+    }
+
     /**
      * Quantizes the block with this matrix (divides each pixel value by the
      * respective coefficient in the table
@@ -41,14 +64,23 @@ public class QuanTable
     {
         Block8x8 out = new Block8x8();
 
-        for (int y = 0; y < 8; y++)
-            for (int x = 0; x < 8; x++)
-            {
-                out.data[y][x] = in.data[y][x] / table[y][x];
-            }
+        quantize(in, out);
         return out;
     }
 
+    /**
+     * Quantizes the block into given output block, which may be the input
+     * block itself.
+     * 
+     * @param in block for quantizing
+     * @param out quantized block
+     */
+    public void quantize(Block8x8 in, Block8x8 out)
+    {
+        for (int i = 0; i < 64; i++)
+            out.data[i] = in.data[i] / flat[i];
+    }
+
     /**
      * Dequantization (inverse quantization). Takes quantized block and returns
      * dequantized block as it were before quantization (there may and will be
@@ -61,11 +93,20 @@ public class QuanTable
     {
         Block8x8 out = new Block8x8();
 
-        for (int y = 0; y < 8; y++)
-            for (int x = 0; x < 8; x++)
-            {
-                out.data[y][x] = in.data[y][x] * table[y][x];
-            }
+        dequantize(in, out);
         return out;
     }
+
+    /**
+     * Dequantizes the block into given output block, which may be the input
+     * block itself.
+     * 
+     * @param in quantized block
+     * @param out reconstructed (dequantized) block
+     */
+    public void dequantize(Block8x8 in, Block8x8 out)
+    {
+        for (int i = 0; i < 64; i++)
+            out.data[i] = in.data[i] * flat[i];
+    }
 }
@@ -7,6 +7,8 @@ package Stegano;
 import java.awt.image.*;
 import java.awt.Image;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import javax.imageio.ImageIO;
 import javax.swing.JApplet;
 
@@ -49,22 +51,78 @@ public class RGBImage
      * @param fname filename of the image
      */
     public RGBImage(String fname) throws IOException, InterruptedException
+    {
+        this(read(fname));
+    }
+
+    /**
+     * Creates RGBImage instance by reading an image from stream.
+     * 
+     * @param in stream with the encoded image, read to the end of the image
+     *        but not closed
+     */
+    public RGBImage(InputStream in) throws IOException, InterruptedException
+    {
+        this(read(in));
+    }
+
+    /**
+     * Decodes image from stream.
+     *
+     * @throws IOException if the stream cannot be read or the format is not
+     *         supported
+     */
+    private static BufferedImage read(InputStream in) throws IOException
+    {
+        BufferedImage img = ImageIO.read(in);
+
+        if (img == null)
+            throw new IOException("Unsupported image format");
+        return img;
+    }
+
+    /**
+     * Decodes image file.
+     *
+     * @throws IOException if the file cannot be read or its format is not
+     *         supported
+     */
+    private static BufferedImage read(String fname) throws IOException
     {
         BufferedImage img = ImageIO.read(new File(fname));
+
+        if (img == null)
+            throw new IOException("Unsupported image format: " + fname);
+        return img;
+    }
+
+    /**
+     * Creates RGBImage instance from decoded image. Images of type
+     * TYPE_INT_RGB, TYPE_INT_ARGB, TYPE_3BYTE_BGR and TYPE_BYTE_GRAY are read
+     * directly from their rasters, other types through {@link PixelGrabber}.
+     * Both ways give the same values.
+     * 
+     * @param img the image
+     */
+    public RGBImage(BufferedImage img) throws InterruptedException
+    {
         wid = img.getWidth();
         hgt = img.getHeight();
         int size = wid * hgt;
 
-        int[] pixels = new int[size];
-
-        // takes all the pixels from image
-        PixelGrabber pg = new PixelGrabber(img, 0, 0, wid, hgt, pixels, 0, wid);
-
         // RGB decomposition
         R = new short[size];
         G = new short[size];
         B = new short[size];
 
+        if (readRaster(img))
+            return;
+
+        int[] pixels = new int[size];
+
+        // takes all the pixels from image
+        PixelGrabber pg = new PixelGrabber(img, 0, 0, wid, hgt, pixels, 0, wid);
+
         pg.grabPixels();
 
         for (int i = 0; i < size; i++)
@@ -76,28 +134,196 @@ public class RGBImage
     }
 
     /**
-     * Creates RGB image by conversion from image in YCbCr colorspace.
+     * Reads pixels directly from the data buffer of common image types.
+     * 
+     * @param img the image
+     * @return false if the image layout is not supported, nothing is read
+     *         then
+     */
+    private boolean readRaster(BufferedImage img)
+    {
+        WritableRaster raster = img.getRaster();
+
+        if (raster.getSampleModelTranslateX() != 0
+            || raster.getSampleModelTranslateY() != 0
+            || raster.getDataBuffer().getNumBanks() != 1)
+            return false;
+
+        SampleModel sm = raster.getSampleModel();
+        int off = raster.getDataBuffer().getOffset();
+
+        switch (img.getType())
+        {
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB:
+            {
+                int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+                int stride = ((SinglePixelPackedSampleModel) sm)
+                                .getScanlineStride();
+
+                for (int y = 0, i = 0; y < hgt; y++)
+                    for (int p = off + y * stride, e = p + wid; p < e; p++, i++)
+                    {
+                        R[i] = (short) (0xff & (data[p] >> 16));
+                        G[i] = (short) (0xff & (data[p] >> 8));
+                        B[i] = (short) (0xff & data[p]);
+                    }
+                return true;
+            }
+            case BufferedImage.TYPE_3BYTE_BGR:
+            {
+                byte[] data = ((DataBufferByte) raster.getDataBuffer())
+                                .getData();
+                ComponentSampleModel csm = (ComponentSampleModel) sm;
+                int stride = csm.getScanlineStride(), ps = csm.getPixelStride();
+                int[] bo = csm.getBandOffsets();
+
+                for (int y = 0, i = 0; y < hgt; y++)
+                    for (int p = off + y * stride, e = p + wid * ps; p < e; p += ps, i++)
+                    {
+                        R[i] = (short) (0xff & data[p + bo[0]]);
+                        G[i] = (short) (0xff & data[p + bo[1]]);
+                        B[i] = (short) (0xff & data[p + bo[2]]);
+                    }
+                return true;
+            }
+            case BufferedImage.TYPE_BYTE_GRAY:
+            {
+                byte[] data = ((DataBufferByte) raster.getDataBuffer())
+                                .getData();
+                ComponentSampleModel csm = (ComponentSampleModel) sm;
+                int stride = csm.getScanlineStride(), ps = csm.getPixelStride();
+                int bo = csm.getBandOffsets()[0];
+
+                // gray colorspace is linear, the color model maps it to sRGB
+                // the same way as for PixelGrabber
+                short[] lut = new short[256];
+                ColorModel cm = img.getColorModel();
+                for (int v = 0; v < 256; v++)
+                    lut[v] = (short) (0xff & cm.getRGB(new byte[] { (byte) v }));
+
+                for (int y = 0, i = 0; y < hgt; y++)
+                    for (int p = off + y * stride + bo, e = p + wid * ps; p < e; p += ps, i++)
+                    {
+                        R[i] = G[i] = B[i] = lut[0xff & data[p]];
+                    }
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Creates RGB image by conversion from image in YCbCr colorspace. If the
+     * image has its source RGB image, only pixels of blocks changed by
+     * imprinting (see {@link YCbCrImage#isDirty}) are converted, the rest is
+     * copied from the source, so that it does not drift by rounding in the
+     * conversion there and back.
      */
     public RGBImage(YCbCrImage ymg)
     {
-        int size = ymg.Y.length;
+        if (ymg.isLumaOnly())
+        {
+            RGBImage src = ymg.getSource();
 
-        R = new short[size];
-        G = new short[size];
-        B = new short[size];
+            R = src.R.clone();
+            G = src.G.clone();
+            B = src.B.clone();
+            wid = src.getWidth();
+            hgt = src.getHeight();
+            addLuma(ymg);
+            return;
+        }
+
+        final YCbCrImage src = ymg;
+        final ColorConversion cc = ColorConversion.get();
 
         wid = ymg.getWidth();
         hgt = ymg.getHeight();
 
-        for (int i = 0; i < size; i++)
+        if (ymg.getSource() != null)
         {
-            double y = ymg.Y[i], cb = ymg.Cb[i], cr = ymg.Cr[i];
+            RGBImage orig = ymg.getSource();
+            final int blocksX = ymg.getBlocksX();
 
-            // transition YCbCr -> RGB (linear operator)
-            R[i] = norm(y - 0.001 * cb + 1.402 * cr);
-            G[i] = norm(y - 0.344 * cb - 0.714 * cr);
-            B[i] = norm(y + 1.772 * cb + 0.001 * cr);
+            R = orig.R.clone();
+            G = orig.G.clone();
+            B = orig.B.clone();
+            BlockRows.forEach(ymg.getBlocksY(), new BlockRows.Kernel()
+            {
+                public void rows(int from, int to)
+                {
+                    for (int by = from; by < to; by++)
+                        for (int bx = 0; bx < blocksX; bx++)
+                        {
+                            if (!src.isDirty(by * blocksX + bx))
+                                continue;
+
+                            for (int y = by * 8; y < by * 8 + 8; y++)
+                                cc.toRGB(src.Y, src.Cb, src.Cr, R, G, B, y
+                                                * wid + bx * 8, y * wid + bx
+                                                * 8 + 8);
+                        }
+                }
+            });
+            return;
         }
+
+        int size = ymg.Y.length;
+        R = new short[size];
+        G = new short[size];
+        B = new short[size];
+
+        final int pixels = size, rows = (size + YCbCrImage.CHUNK - 1)
+                        / YCbCrImage.CHUNK;
+
+        BlockRows.forEach(rows, new BlockRows.Kernel()
+        {
+            public void rows(int from, int to)
+            {
+                cc.toRGB(src.Y, src.Cb, src.Cr, R, G, B, from
+                                * YCbCrImage.CHUNK, Math.min(pixels, to
+                                * YCbCrImage.CHUNK));
+            }
+        });
+    }
+
+    /**
+     * Adds luma changes of imprinted image to this image in place. Change of
+     * luma by d changes each of R, G, B by d (luma has unit gain in the
+     * YCbCr to RGB transform). Pixels of blocks that did not change are
+     * left as they are.
+     * 
+     * @param ymg luma-only image of the same size after
+     *        {@link YCbCrImage#reverseTransform}
+     */
+    public void addLuma(final YCbCrImage ymg)
+    {
+        final int blocksX = ymg.getBlocksX();
+
+        BlockRows.forEach(ymg.getBlocksY(), new BlockRows.Kernel()
+        {
+            public void rows(int from, int to)
+            {
+                for (int by = from; by < to; by++)
+                    for (int bx = 0; bx < blocksX; bx++)
+                    {
+                        double d = ymg.getLumaOffset(by * blocksX + bx);
+
+                        if (d == 0)
+                            continue;
+
+                        for (int y = by * 8; y < by * 8 + 8; y++)
+                            for (int i = y * wid + bx * 8, e = i + 8; i < e; i++)
+                            {
+                                R[i] = norm(R[i] + d);
+                                G[i] = norm(G[i] + d);
+                                B[i] = norm(B[i] + d);
+                            }
+                    }
+            }
+        });
     }
 
     /**
@@ -141,15 +367,35 @@ public class RGBImage
      *        supported by {@link ImageIO}
      */
     public void Save(String fname, String format) throws IOException
+    {
+        ImageIO.write(toBufferedImage(), format, new File(fname));
+    }
+
+    /**
+     * Write RGB image to stream.
+     * 
+     * @param out stream to write to, not closed
+     * @param format image format name, see {@link #Save(String, String)}
+     */
+    public void Save(OutputStream out, String format) throws IOException
+    {
+        if (!ImageIO.write(toBufferedImage(), format, out))
+            throw new IOException("Unsupported image format: " + format);
+    }
+
+    /**
+     * Creates TYPE_INT_RGB image, pixels are written directly into its data
+     * buffer.
+     */
+    public BufferedImage toBufferedImage()
     {
         BufferedImage img = new BufferedImage(wid, hgt,
                         BufferedImage.TYPE_INT_RGB);
-        for (int y = 0; y < hgt; y++)
-            for (int x = 0; x < wid; x++)
-            {
-                int i = y * wid + x;
-                img.setRGB(x, y, (R[i] << 16) | (G[i] << 8) | (B[i]));
-            }
-        ImageIO.write(img, format, new File(fname));
+        int[] data = ((DataBufferInt) img.getRaster().getDataBuffer())
+                        .getData();
+
+        for (int i = 0; i < data.length; i++)
+            data[i] = (R[i] << 16) | (G[i] << 8) | (B[i]);
+        return img;
     }
 }
@@ -0,0 +1,373 @@
+/*
+ * Part of DCSteg steganographic/watermarking utility.
+ * Distributed under GPL v2 license.
+ */
+package Stegano;
+
+/**
+ * Reed-Solomon code RS(255,223) over GF(2^8) as payload codec: blocks of at
+ * most {@link #DATA} message bytes get {@link #PARITY} parity bytes, each
+ * block corrects up to 16 wrong bytes at any positions. The payload is split
+ * into blocks of equal length (the last ones shorter by one byte), shortened
+ * codewords are used for blocks below {@link #DATA} bytes.
+ *
+ * Bytes of the blocks are interleaved in the medium: first byte of every
+ * block, then the second one etc. A burst of wrong carrier bits thus spreads
+ * over all blocks.
+ *
+ * A byte takes about 9.2 medium bits in long messages instead of 14 bits of
+ * {@link HammingCode}. Hamming corrects one bit in every 7, i.e. scattered
+ * single-bit errors up to 14 % of the medium, but no two errors close to each
+ * other; this code corrects at most 6 % of wrong bytes but any bits within
+ * them. Short messages pay the 32 parity bytes in full.
+ *
+ * Field arithmetic uses log and antilog tables of primitive polynomial
+ * x^8 + x^4 + x^3 + x^2 + 1, generator roots are a^0 .. a^31. Decoding
+ * computes the syndromes, the error locator by Berlekamp-Massey, its roots
+ * by Chien search and the error values by Forney's formula.
+ *
+ * @author Ondrej Mikle
+ * @version 0.1
+ */
+public class ReedSolomonCode implements PayloadCodec
+{
+    /**
+     * Codec id in the frame header.
+     */
+    public static final int ID = 1;
+
+    /**
+     * Parity bytes per block.
+     */
+    public static final int PARITY = 32;
+
+    /**
+     * Maximal message bytes per block.
+     */
+    public static final int DATA = 255 - PARITY;
+
+    /**
+     * Antilog table, a^i for i in 0..509 (doubled, so that sum of two logs
+     * needs no reduction), and log table (LOG[0] is unused).
+     */
+    private static final int[] EXP = new int[510], LOG = new int[256];
+
+    /**
+     * Generator polynomial, coefficients from the highest degree, GEN[0] is
+     * 1.
+     */
+    private static final int[] GEN = new int[PARITY + 1];
+
+    static
+    {
+        for (int i = 0, x = 1; i < 255; i++)
+        {
+            EXP[i] = EXP[i + 255] = x;
+            LOG[x] = i;
+            x <<= 1;
+            if (x > 0xff)
+                x ^= 0x11d;
+        }
+
+        // product of (x - a^j), multiplied in one root at a time
+        GEN[0] = 1;
+        for (int j = 0; j < PARITY; j++)
+            for (int i = j + 1; i > 0; i--)
+                GEN[i] ^= mul(GEN[i - 1], EXP[j]);
+    }
+
+    /**
+     * Returns codec id {@link #ID}.
+     */
+    public int getId()
+    {
+        return ID;
+    }
+
+    /**
+     * Returns codec name "rs".
+     */
+    public String getName()
+    {
+        return "rs";
+    }
+
+    /**
+     * Returns number of bits encoding given number of bytes: the bytes and
+     * {@link #PARITY} parity bytes per block, 8 bits each.
+     * 
+     * @param bytes payload length
+     */
+    public int codedBits(int bytes)
+    {
+        return 8 * (bytes + PARITY * blocks(bytes));
+    }
+
+    /**
+     * Returns number of bytes encoded in given number of bits: {@link #DATA}
+     * per whole codeword of 255 bytes, and the rest of a shortened codeword
+     * after its parity.
+     * 
+     * @param bits available bits
+     */
+    public int maxBytes(int bits)
+    {
+        int bytes = bits / 8;
+
+        return bytes / 255 * DATA + Math.max(0, bytes % 255 - PARITY);
+    }
+
+    /**
+     * Splits bytes into blocks, computes their parity and appends the
+     * codewords interleaved byte by byte, bit 0 of each byte first.
+     * 
+     * @param data bytes to encode
+     * @param out bits of the medium
+     */
+    public void encodePayload(byte[] data, BitBuffer out)
+    {
+        int[][] code = split(data.length);
+
+        for (int b = 0, pos = 0; b < code.length; b++)
+        {
+            int[] c = code[b];
+            int k = c.length - PARITY;
+
+            for (int i = 0; i < k; i++)
+                c[i] = data[pos++] & 0xff;
+            parity(c, k);
+        }
+
+        for (int i = 0; i < (code.length > 0 ? code[0].length : 0); i++)
+            for (int b = 0; b < code.length && i < code[b].length; b++)
+                out.append(code[b][i], 8);
+    }
+
+    /**
+     * Reads the interleaved codewords and corrects each block. Interleaving
+     * depth is the number of blocks, (length + 222) / 223: consecutive bytes
+     * of the medium belong to different blocks. Each block corrects at most
+     * 16 ({@link #PARITY} / 2) wrong bytes; a block with more errors is
+     * returned as read.
+     * 
+     * @param src bits of the medium
+     * @param length number of bytes encoded
+     * @return decoded bytes
+     * @throws EndOfMediumException if the medium ends before all bytes are
+     *         read
+     */
+    public byte[] decodePayload(BitSource src, int length)
+                    throws EndOfMediumException
+    {
+        int[][] code = split(length);
+
+        for (int i = 0; i < (code.length > 0 ? code[0].length : 0); i++)
+            for (int b = 0; b < code.length && i < code[b].length; b++)
+                code[b][i] = readByte(src);
+
+        byte[] data = new byte[length];
+        for (int b = 0, pos = 0; b < code.length; b++)
+        {
+            int[] c = code[b];
+
+            correct(c);
+            for (int i = 0; i < c.length - PARITY; i++)
+                data[pos++] = (byte) c[i];
+        }
+        return data;
+    }
+
+    /**
+     * Returns number of blocks for payload of given length.
+     */
+    private static int blocks(int bytes)
+    {
+        return (bytes + DATA - 1) / DATA;
+    }
+
+    /**
+     * Allocates codewords of the blocks for payload of given length, message
+     * bytes are split evenly, the longer blocks go first.
+     */
+    private static int[][] split(int bytes)
+    {
+        int n = blocks(bytes);
+        int[][] code = new int[n][];
+
+        for (int b = 0; b < n; b++)
+            code[b] = new int[bytes / n + (b < bytes % n ? 1 : 0) + PARITY];
+        return code;
+    }
+
+    /**
+     * Reads one byte from medium, bit 0 first.
+     */
+    private static int readByte(BitSource src) throws EndOfMediumException
+    {
+        int v = 0;
+
+        for (int i = 0; i < 8; i++)
+            if (src.next())
+                v |= 1 << i;
+        return v;
+    }
+
+    /**
+     * Multiplies in GF(2^8).
+     */
+    private static int mul(int a, int b)
+    {
+        return (a == 0 || b == 0) ? 0 : EXP[LOG[a] + LOG[b]];
+    }
+
+    /**
+     * Divides in GF(2^8), b must not be 0.
+     */
+    private static int div(int a, int b)
+    {
+        return (a == 0) ? 0 : EXP[LOG[a] + 255 - LOG[b]];
+    }
+
+    /**
+     * Computes parity bytes of codeword: remainder of message polynomial
+     * times x^PARITY divided by the generator, by shift register.
+     *
+     * @param c codeword, k message bytes followed by place for the parity
+     * @param k number of message bytes
+     */
+    private static void parity(int[] c, int k)
+    {
+        int[] p = new int[PARITY];
+
+        for (int i = 0; i < k; i++)
+        {
+            int fb = c[i] ^ p[0];
+
+            System.arraycopy(p, 1, p, 0, PARITY - 1);
+            p[PARITY - 1] = 0;
+            if (fb != 0)
+                for (int j = 0; j < PARITY; j++)
+                    p[j] ^= mul(GEN[j + 1], fb);
+        }
+        System.arraycopy(p, 0, c, k, PARITY);
+    }
+
+    /**
+     * Corrects errors of codeword in place. Codeword with more errors than
+     * the code corrects is left unchanged.
+     *
+     * @param c codeword, c[0] is the coefficient of the highest degree
+     * @return number of corrected bytes, -1 if the errors cannot be
+     *         corrected
+     */
+    static int correct(int[] c)
+    {
+        int n = c.length;
+        int[] s = new int[PARITY];
+        boolean clean = true;
+
+        // syndromes S_j = c(a^j)
+        for (int j = 0; j < PARITY; j++)
+        {
+            int v = 0;
+
+            for (int i = 0; i < n; i++)
+                v = mul(v, EXP[j]) ^ c[i];
+            s[j] = v;
+            clean &= (v == 0);
+        }
+        if (clean)
+            return 0;
+
+        // Berlekamp-Massey: error locator, coefficients from x^0
+        int[] lambda = new int[PARITY + 1], prev = new int[PARITY + 1];
+        int errors = 0, shift = 1, last = 1;
+
+        lambda[0] = prev[0] = 1;
+        for (int r = 0; r < PARITY; r++)
+        {
+            int d = s[r];
+
+            for (int i = 1; i <= errors; i++)
+                d ^= mul(lambda[i], s[r - i]);
+            if (d == 0)
+            {
+                shift++;
+                continue;
+            }
+
+            int coef = div(d, last);
+            int[] t = lambda.clone();
+
+            for (int i = 0; i + shift <= PARITY; i++)
+                lambda[i + shift] ^= mul(coef, prev[i]);
+            if (2 * errors <= r)
+            {
+                errors = r + 1 - errors;
+                prev = t;
+                last = d;
+                shift = 1;
+            } else
+                shift++;
+        }
+        if (errors > PARITY / 2)
+            return -1;
+
+        // error evaluator: S(x) * lambda(x) mod x^PARITY
+        int[] omega = new int[PARITY];
+        for (int i = 0; i < PARITY; i++)
+            for (int j = 0; j <= Math.min(i, errors); j++)
+                omega[i] ^= mul(s[i - j], lambda[j]);
+
+        // Chien search over positions of the (shortened) codeword, position
+        // i has locator X = a^(n-1-i); Forney: e = X * omega(1/X) / lambda'(1/X)
+        int[] pos = new int[errors], val = new int[errors];
+        int found = 0;
+
+        for (int i = 0; i < n; i++)
+        {
+            int xinv = EXP[(255 - (n - 1 - i)) % 255];
+
+            if (eval(lambda, errors, xinv) != 0)
+                continue;
+            if (found == errors)
+                return -1;
+
+            int deriv = 0;
+            for (int j = 1; j <= errors; j += 2)
+                deriv ^= mul(lambda[j], pow(xinv, j - 1));
+            if (deriv == 0)
+                return -1;
+
+            pos[found] = i;
+            val[found++] = mul(EXP[n - 1 - i], div(eval(omega, PARITY - 1,
+                            xinv), deriv));
+        }
+        if (found != errors)
+            return -1;
+
+        for (int i = 0; i < found; i++)
+            c[pos[i]] ^= val[i];
+        return found;
+    }
+
+    /**
+     * Evaluates polynomial with coefficients from x^0 up to given degree.
+     */
+    private static int eval(int[] p, int degree, int x)
+    {
+        int v = 0;
+
+        for (int i = degree; i >= 0; i--)
+            v = mul(v, x) ^ p[i];
+        return v;
+    }
+
+    /**
+     * Raises nonzero element to power e.
+     */
+    private static int pow(int x, int e)
+    {
+        return EXP[(LOG[x] * e) % 255];
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Part of DCSteg steganographic/watermarking utility.
+ * Distributed under GPL v2 license.
+ */
+package Stegano;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder event spanning one stage of analysis, encoding or
+ * decoding (image read, colour conversion, forward transform, imprint, ...).
+ * Strip processing emits the events for every strip. Events cost next to
+ * nothing unless a recording with event <code>Stegano.Stage</code> enabled
+ * is running, e.g.
+ * <code>java -XX:StartFlightRecording=filename=dcsteg.jfr -jar DCSteg.jar ...</code>
+ *
+ * @author Ondrej Mikle
+ * @version 0.1
+ */
+@Name("Stegano.Stage")
+@Label("DCSteg Stage")
+@Category("DCSteg")
+@Description("One stage of DCSteg analysis, encoding or decoding")
+@StackTrace(false)
+public class StageEvent extends Event
+{
+    /**
+     * Operations.
+     */
+    public static final String ANALYZE = "analyze", ENCODE = "encode",
+                    DECODE = "decode";
+
+    /**
+     * Stages.
+     */
+    public static final String CACHE = "cache lookup", READ = "read",
+                    COLOR = "color conversion", FORWARD = "forward transform",
+                    ANALYSIS = "analysis",
+                    IMPRINT = "imprint", EXTRACT = "extract",
+                    REVERSE = "reverse transform",
+                    BACK_CONVERSION = "back conversion", WRITE = "write";
+
+    @Label("Operation")
+    public String operation;
+
+    @Label("Stage")
+    public String stage;
+
+    @Label("Width")
+    @Description("Width of the image or strip")
+    public int width;
+
+    @Label("Height")
+    @Description("Height of the image or strip")
+    public int height;
+
+    @Label("Order")
+    @Description("Imprint strength, -1 for analysis")
+    public int order;
+
+    @Label("Bits")
+    @Description("Medium bits written or read, "
+                    + "carrier bits of order 0 for analysis")
+    public long bits;
+
+    @Label("Change Ratio")
+    @Description("Ratio of carriers whose value changed by imprint")
+    public double changeRatio;
+
+    @Label("Bytes")
+    @Description("Bytes of image file read, hashed or written, "
+                    + "message bytes for extract")
+    @DataAmount
+    public long bytes;
+
+    /**
+     * Creates the event and starts timing it. It is recorded by
+     * {@link #commit}.
+     *
+     * @param operation one of {@link #ANALYZE}, {@link #ENCODE},
+     *        {@link #DECODE}
+     * @param stage stage name, one of the stage constants
+     * @param order imprint strength, -1 for analysis
+     */
+    public StageEvent(String operation, String stage, int order)
+    {
+        this.operation = operation;
+        this.stage = stage;
+        this.order = order;
+        begin();
+    }
+
+    /**
+     * Sets image dimensions.
+     *
+     * @param wid width
+     * @param hgt height
+     * @return this event
+     */
+    public StageEvent size(int wid, int hgt)
+    {
+        width = wid;
+        height = hgt;
+        return this;
+    }
+}
@@ -9,10 +9,30 @@
 
 package Stegano;
 
+import java.io.ByteArrayOutputStream;
+import java.util.zip.CRC32;
+
 /**
  * StegCodes takes care of imprinting/extracting message to/from the medium
- * (image in YCbCr colorspace). The message is encoded in Hamming code before
- * being imprinted.
+ * (image in YCbCr colorspace). The message is encoded in an error-correcting
+ * code ({@link PayloadCodec}) before being imprinted.
+ *
+ * The message is imprinted as a frame: header followed by the message bytes.
+ * Header (big-endian, always Hamming coded):
+ * <pre>
+ * 0  u16 magic 0xDC57
+ * 2  u8  frame version (1)
+ * 3  u8  payload codec (0 - Hamming(7,4), 1 - Reed-Solomon(255,223))
+ * 4  u16 message length in bytes
+ * 6  u32 CRC32 of the message bytes
+ * </pre>
+ * The message bytes are coded by the codec named in the header. Codec used
+ * for encoding is given by system property <code>dcsteg.codec</code>:
+ * <code>hamming</code> (default) or <code>rs</code>; decoding reads any.
+ * Unmarked image is thus recognized after reading the first byte or two of
+ * the medium, a marked one is read up to the declared length only. Medium
+ * without valid frame is decoded in the older format: message terminated by
+ * NULL bytes.
  *
  * @author Ondrej Mikle
  * @version 0.1
@@ -26,15 +46,124 @@ public class StegCodec
      */
     private static final String terminator = new String(new byte[4]);
 
+    /**
+     * Frame magic.
+     */
+    public static final int FRAME_MAGIC = 0xDC57;
+
+    /**
+     * Frame version written.
+     */
+    public static final int FRAME_VERSION = 1;
+
+    /**
+     * Payload codec: Hamming(7,4), 14 bits per byte.
+     */
+    public static final int CODEC_HAMMING = HammingCode.ID;
+
+    /**
+     * Payload codec: Reed-Solomon(255,223).
+     */
+    public static final int CODEC_REED_SOLOMON = ReedSolomonCode.ID;
+
+    /**
+     * Size of frame header in bytes and in bits of the medium.
+     */
+    public static final int HEADER_BYTES = 10, HEADER_BITS = 14 * HEADER_BYTES;
+
+    /**
+     * Maximal message length in bytes.
+     */
+    public static final int MAX_LENGTH = 0xffff;
+
+    /**
+     * How message was found by {@link #decodeMessage(BitSource, int[])}: in
+     * a frame with valid CRC, followed by whole terminator, or neither (the
+     * medium holds no message or a corrupted one).
+     */
+    static final int FOUND_NONE = 0, FOUND_TERMINATED = 1, FOUND_FRAME = 2;
+
+    /**
+     * Hamming codec, also codes the frame header.
+     */
+    private static final HammingCode HAMMING = new HammingCode();
+
+    /**
+     * Known codecs, index is the id.
+     */
+    private static final PayloadCodec[] CODECS = { HAMMING,
+                    new ReedSolomonCode() };
+
+    /**
+     * Codec used for encoding.
+     */
+    private static volatile PayloadCodec codec = codecByName(System
+                    .getProperty("dcsteg.codec", "hamming"));
+
+    /**
+     * Returns codec of given name.
+     * 
+     * @param name <code>hamming</code> or <code>rs</code>
+     * @throws IllegalArgumentException if there is no such codec
+     */
+    public static PayloadCodec codecByName(String name)
+    {
+        for (int i = 0; i < CODECS.length; i++)
+            if (CODECS[i].getName().equalsIgnoreCase(name))
+                return CODECS[i];
+        throw new IllegalArgumentException("Unknown payload codec: " + name);
+    }
+
+    /**
+     * Returns codec of given id, null if there is none.
+     * 
+     * @param id codec id from frame header
+     */
+    public static PayloadCodec codecById(int id)
+    {
+        return (id >= 0 && id < CODECS.length) ? CODECS[id] : null;
+    }
+
+    /**
+     * Sets the codec used for all subsequent encoding.
+     * 
+     * @param c the codec
+     */
+    public static void setCodec(PayloadCodec c)
+    {
+        codec = c;
+    }
+
+    /**
+     * Returns the codec used for encoding.
+     */
+    public static PayloadCodec getCodec()
+    {
+        return codec;
+    }
+
     /**
      * Computes the number of bytes of message that can be imprinted given the
-     * number of bits available in medium.
+     * number of bits available in medium, with the codec used for encoding.
      * 
      * @param bits of available bits on medium
      */
     public static int bits2bytesSpace(int bits)
     {
-        return (bits / 14 - terminator.length());
+        return bits2bytesSpace(bits, codec);
+    }
+
+    /**
+     * Computes the number of bytes of message that can be imprinted with
+     * given codec.
+     * 
+     * @param bits of available bits on medium
+     * @param c payload codec
+     */
+    public static int bits2bytesSpace(int bits, PayloadCodec c)
+    {
+        return Math.min(c.maxBytes(Math.max(0, bits - HEADER_BITS)),
+                        MAX_LENGTH);
     }
 
     /**
@@ -43,20 +172,67 @@ public class StegCodec
      * @param ymg image to imprint into
      * @param msg the message (should not contain NULL character, it will be truncated at decoding time otherwise)
      * @param order imprint strength (imprint bit order)
+     * @return ratio of carriers whose value changed
      * 
      * @throws EndOfMediumException if message length exceeds space in the medium
      */
-    public static void imprintMessage(YCbCrImage ymg, String msg, int order)
+    public static double imprintMessage(YCbCrImage ymg, String msg, int order)
                     throws EndOfMediumException
     {
-        String msgtailed = msg + terminator;
-        CountedBitSet hc = HammingCode.Encode(msgtailed);
+        return ymg.imprintMedium(order, encodeMessage(msg));
+    }
 
-        ymg.imprintMedium(order, hc);
+    /**
+     * Encodes message frame into bits to be imprinted, with the codec used
+     * for encoding.
+     * 
+     * @param msg the message
+     * @return bits of the medium
+     * @throws IllegalArgumentException if the message is longer than
+     *         {@link #MAX_LENGTH} bytes
+     */
+    public static BitBuffer encodeMessage(String msg)
+    {
+        return encodeMessage(msg, codec);
     }
 
     /**
-     * Extracts message from image
+     * Encodes message frame into bits to be imprinted.
+     * 
+     * @param msg the message
+     * @param c payload codec
+     * @return bits of the medium
+     * @throws IllegalArgumentException if the message is longer than
+     *         {@link #MAX_LENGTH} bytes
+     */
+    public static BitBuffer encodeMessage(String msg, PayloadCodec c)
+    {
+        byte[] data = msg.getBytes();
+
+        if (data.length > MAX_LENGTH)
+            throw new IllegalArgumentException("Message longer than "
+                            + MAX_LENGTH + " bytes");
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+
+        byte[] header = new byte[HEADER_BYTES];
+        putInt(header, 0, FRAME_MAGIC, 2);
+        header[2] = (byte) FRAME_VERSION;
+        header[3] = (byte) c.getId();
+        putInt(header, 4, data.length, 2);
+        putInt(header, 6, (int) crc.getValue(), 4);
+
+        BitBuffer medium = new BitBuffer(HEADER_BITS
+                        + c.codedBits(data.length));
+        HAMMING.encodePayload(header, medium);
+        c.encodePayload(data, medium);
+        return medium;
+    }
+
+    /**
+     * Extracts message from image. Carrier bits are read only up to the
+     * message terminator.
      * 
      * @param ymg image to extract from
      * @param order bit order (imprint strength) of the imprinted message
@@ -64,15 +240,198 @@ public class StegCodec
      */
     public static String extractMessage(YCbCrImage ymg, int order)
     {
-        CountedBitSet hc = ymg.exportMedium(order);
+        return decodeMessage(ymg.mediumSource(order));
+    }
+
+    /**
+     * Decodes message from bits read from medium.
+     * 
+     * @param hc bits of the medium
+     * @return decoded message
+     */
+    public static String decodeMessage(BitBuffer hc)
+    {
+        return decodeMessage(hc.source());
+    }
+
+    /**
+     * Decodes message from bits of medium read on demand. Header bytes are
+     * decoded one by one (two Hamming codewords each). Framed message is read
+     * up to its declared length. Otherwise the medium is decoded again from
+     * its start (the bits read so far are kept) as message in the older
+     * format, reading stops at the first NULL byte, the start of the
+     * terminator. Without terminator, all whole bytes of the medium are
+     * decoded.
+     * 
+     * @param src bits of the medium
+     * @return decoded message
+     */
+    public static String decodeMessage(BitSource src)
+    {
+        return decodeMessage(src, new int[1]);
+    }
+
+    /**
+     * Decodes message as {@link #decodeMessage(BitSource)} and tells how
+     * trustworthy it is. Message in the older format is followed by reading
+     * the rest of its terminator.
+     * 
+     * @param src bits of the medium
+     * @param found gets {@link #FOUND_FRAME}, {@link #FOUND_TERMINATED} or
+     *        {@link #FOUND_NONE} in its first element
+     * @return decoded message
+     */
+    static String decodeMessage(BitSource src, int[] found)
+    {
+        BitBuffer read = new BitBuffer(HEADER_BITS);
+        String msg = readFrame(src, read);
+
+        found[0] = FOUND_FRAME;
+        if (msg != null)
+            return msg;
+
+        // message without frame, or a corrupted one; payload of a frame may
+        // use other code than Hamming, so the medium bits read so far are
+        // decoded again before the further ones
+        BitSource medium = concat(read.source(), src);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int nulls = 0, b;
+
+        try
+        {
+            while ((b = readByte(medium)) != 0)
+                out.write(b);
+            // the first NULL byte is read, check the rest of the terminator
+            for (nulls = 1; nulls < terminator.length(); nulls++)
+                if (readByte(medium) != 0)
+                    break;
+        } catch (EndOfMediumException e)
+        {
+            // no terminator found, bits not filling a whole byte are ignored
+        }
+
+        found[0] = (nulls == terminator.length()) ? FOUND_TERMINATED
+                        : FOUND_NONE;
+        return new String(out.toByteArray());
+    }
+
+    /**
+     * Decodes framed message from bits of medium read on demand. Reading
+     * stops at the first header byte that does not match, so that medium
+     * without a frame is rejected after 14 or 28 bits.
+     * 
+     * @param src bits of the medium
+     * @return the message, null if there is no frame with valid header and
+     *         CRC
+     */
+    public static String readFrame(BitSource src)
+    {
+        return readFrame(src, new BitBuffer(HEADER_BITS));
+    }
+
+    /**
+     * Decodes framed message, see {@link #readFrame(BitSource)}.
+     * 
+     * @param medium bits of the medium
+     * @param read gets all bits read from the medium
+     * @return the message, null if there is no valid frame
+     */
+    private static String readFrame(final BitSource medium,
+                    final BitBuffer read)
+    {
+        BitSource src = new BitSource()
+        {
+            public boolean next() throws EndOfMediumException
+            {
+                boolean bit = medium.next();
+
+                read.add(bit);
+                return bit;
+            }
+        };
+        byte[] header = new byte[HEADER_BYTES];
+
+        try
+        {
+            for (int i = 0; i < HEADER_BYTES; i++)
+            {
+                header[i] = (byte) readByte(src);
+
+                if ((i == 0 && (header[0] & 0xff) != FRAME_MAGIC >>> 8)
+                    || (i == 1 && getInt(header, 0, 2) != FRAME_MAGIC)
+                    || (i == 2 && header[2] != FRAME_VERSION)
+                    || (i == 3 && codecById(header[3] & 0xff) == null))
+                    return null;
+            }
+
+            byte[] data = codecById(header[3] & 0xff).decodePayload(src,
+                            getInt(header, 4, 2));
+
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, data.length);
+            if ((int) crc.getValue() != getInt(header, 6, 4))
+                return null;
+
+            return new String(data);
+        } catch (EndOfMediumException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Returns source reading all bits of the first source, then the second
+     * one.
+     */
+    private static BitSource concat(final BitSource first,
+                    final BitSource second)
+    {
+        return new BitSource()
+        {
+            private boolean inFirst = true;
+
+            public boolean next() throws EndOfMediumException
+            {
+                if (inFirst)
+                    try
+                    {
+                        return first.next();
+                    } catch (EndOfMediumException e)
+                    {
+                        inFirst = false;
+                    }
+                return second.next();
+            }
+        };
+    }
+
+    /**
+     * Reads and decodes one byte (two Hamming codewords) from medium.
+     */
+    private static int readByte(BitSource src) throws EndOfMediumException
+    {
+        return HammingCode.readByte(src) & 0xff;
+    }
 
-        String msgtailed = HammingCode.Decode(hc);
-        int terminator = msgtailed.indexOf(0); // we search for terminator, the NULL byte
+    /**
+     * Stores big-endian integer of n bytes.
+     */
+    private static void putInt(byte[] buf, int pos, int val, int n)
+    {
+        for (int i = n - 1; i >= 0; i--, val >>>= 8)
+            buf[pos + i] = (byte) val;
+    }
+
+    /**
+     * Reads big-endian integer of n bytes.
+     */
+    private static int getInt(byte[] buf, int pos, int n)
+    {
+        int val = 0;
 
-        if (terminator > -1) // if found
-            return msgtailed.substring(0, terminator);
-        else
-            return msgtailed; // if not, bad luck...
+        for (int i = 0; i < n; i++)
+            val = (val << 8) | (buf[pos + i] & 0xff);
+        return val;
     }
 
 }
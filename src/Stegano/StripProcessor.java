@@ -0,0 +1,668 @@
+/*
+ * Part of DCSteg steganographic/watermarking utility.
+ * Distributed under GPL v2 license.
+ */
+package Stegano;
+
+import java.awt.Rectangle;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Processes large images in horizontal strips, so that memory use is
+ * proportional to image width instead of image area. Strip height is a
+ * multiple of 8, so strips consist of whole rows of blocks and every strip
+ * can be transformed on its own. Carriers are used top to bottom, thus the
+ * medium of the whole image is the concatenation of media of the strips and
+ * the result is the same as when processing the whole image at once. With a
+ * carrier order key the carriers of a strip hold bits scattered over the
+ * medium, so encoding reads the strips twice and decoding computes the DC
+ * plane of the whole image.
+ *
+ * Strips are read by {@link ImageReader} with source region. Note that common
+ * readers (PNG, JPEG) decode the image from the beginning for every region,
+ * so decoding gets slower with more strips - streaming trades time for
+ * memory.
+ *
+ * Streaming is controlled by system property <code>dcsteg.strip</code>:
+ * <code>off</code> disables it, a number sets the strip height in rows,
+ * <code>auto</code> (default) streams images larger than
+ * {@link #AUTO_PIXELS} in strips of about {@link #STRIP_PIXELS} pixels.
+ *
+ * @author Ondrej Mikle
+ * @version 0.1
+ */
+public class StripProcessor
+{
+    /**
+     * Images with more pixels are streamed in auto mode.
+     */
+    public static final long AUTO_PIXELS = 64L << 20;
+
+    /**
+     * Approximate number of pixels in one strip in auto mode.
+     */
+    public static final long STRIP_PIXELS = 4L << 20;
+
+    /**
+     * Reader of the source image.
+     */
+    private final ImageReader reader;
+
+    /**
+     * Stream the reader reads from.
+     */
+    private final ImageInputStream iis;
+
+    /**
+     * Image dimensions.
+     */
+    private final int wid, hgt;
+
+    /**
+     * Rows in one strip (multiple of 8).
+     */
+    private int stripRows;
+
+    /**
+     * Opens image for strip processing.
+     *
+     * @param fname filename of the image
+     * @throws IOException if the image cannot be read
+     */
+    public StripProcessor(String fname) throws IOException
+    {
+        iis = ImageIO.createImageInputStream(new File(fname));
+        if (iis == null)
+            throw new IOException("Cannot open " + fname);
+
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+        if (!readers.hasNext())
+        {
+            iis.close();
+            throw new IOException("Unsupported image format: " + fname);
+        }
+
+        reader = readers.next();
+        reader.setInput(iis, false, true);
+        wid = reader.getWidth(0);
+        hgt = reader.getHeight(0);
+        setStripRows(autoStripRows(wid));
+    }
+
+    /**
+     * Returns strip height the image should be processed with according to
+     * property <code>dcsteg.strip</code>, 0 if it should be processed whole.
+     *
+     * @param fname filename of the image
+     */
+    public static int stripRowsFor(String fname) throws IOException
+    {
+        // only auto mode needs the image size
+        if (!System.getProperty("dcsteg.strip", "auto")
+                        .equalsIgnoreCase("auto"))
+            return stripRowsFor(0, 0);
+
+        StripProcessor sp = new StripProcessor(fname);
+        try
+        {
+            return stripRowsFor(sp.getWidth(), sp.getHeight());
+        } finally
+        {
+            sp.close();
+        }
+    }
+
+    /**
+     * Returns strip height an image of given size should be processed with,
+     * see {@link #stripRowsFor(String)}.
+     *
+     * @param wid image width
+     * @param hgt image height
+     */
+    public static int stripRowsFor(int wid, int hgt)
+    {
+        String mode = System.getProperty("dcsteg.strip", "auto");
+
+        if (mode.equalsIgnoreCase("off"))
+            return 0;
+        if (!mode.equalsIgnoreCase("auto"))
+            return Integer.parseInt(mode);
+        if ((long) wid * hgt <= AUTO_PIXELS)
+            return 0;
+        return (autoStripRows(wid) + 7) & ~7;
+    }
+
+    /**
+     * Returns strip height of auto mode for given image width.
+     */
+    private static int autoStripRows(int wid)
+    {
+        return (int) Math.max(8, STRIP_PIXELS / Math.max(1, wid));
+    }
+
+    /**
+     * Sets strip height, rounded up to multiple of 8.
+     *
+     * @param rows rows in one strip
+     */
+    public void setStripRows(int rows)
+    {
+        stripRows = Math.max(8, (rows + 7) & ~7);
+    }
+
+    /**
+     * Returns strip height.
+     */
+    public int getStripRows()
+    {
+        return stripRows;
+    }
+
+    /**
+     * Returns image width.
+     */
+    public int getWidth()
+    {
+        return wid;
+    }
+
+    /**
+     * Returns image height.
+     */
+    public int getHeight()
+    {
+        return hgt;
+    }
+
+    /**
+     * Reads one strip of the source image and transforms it, emits the read,
+     * colour conversion and forward transform stage events.
+     *
+     * @param op operation, see {@link StageEvent}
+     * @param order imprint strength, -1 for analysis
+     * @param y first row of the strip
+     * @param lumaOnly whether to compute luma only, see
+     *        {@link YCbCrImage#YCbCrImage(RGBImage, boolean)}
+     */
+    private YCbCrImage readStrip(String op, int order, int y, boolean lumaOnly)
+                    throws IOException, InterruptedException
+    {
+        ImageReadParam param = reader.getDefaultReadParam();
+
+        param.setSourceRegion(new Rectangle(0, y, wid, Math.min(
+                        stripRows, hgt - y)));
+
+        StageEvent ev = new StageEvent(op, StageEvent.READ, order);
+        RGBImage rmg = new RGBImage(reader.read(0, param));
+        ev.size(rmg.getWidth(), rmg.getHeight());
+        ev.commit();
+
+        return DCSteg.transform(op, order, rmg, lumaOnly);
+    }
+
+    /**
+     * Computes capacity analysis of the image.
+     */
+    public CapacityReport analyze() throws IOException, InterruptedException
+    {
+        int[] hist = new int[CapacityReport.BINS];
+
+        for (int y = 0; y < hgt; y += stripRows)
+        {
+            int[] part = DCSteg.analyze(
+                            readStrip(StageEvent.ANALYZE, -1, y, true))
+                            .getHistogram();
+
+            for (int v = 0; v < hist.length; v++)
+                hist[v] += part[v];
+        }
+
+        return new CapacityReport(hist);
+    }
+
+    /**
+     * Computes quantized DC coefficients of all whole blocks of the image,
+     * row by row, see {@link DCSidecar}.
+     */
+    public double[] dcPlane() throws IOException, InterruptedException
+    {
+        double[] plane = new double[(wid / 8) * (hgt / 8)];
+        int pos = 0;
+
+        for (int y = 0; y < hgt; y += stripRows)
+        {
+            YCbCrImage ymg = readStrip(StageEvent.ANALYZE, -1, y, true);
+            int n = ymg.getBlocksX() * ymg.getBlocksY();
+
+            ymg.completeTransform();
+            for (int b = 0; b < n; b++)
+                plane[pos++] = ymg.getDC(b);
+        }
+
+        return plane;
+    }
+
+    /**
+     * Returns image in transformed state holding DC plane of all strips.
+     */
+    private YCbCrImage planeImage() throws IOException, InterruptedException
+    {
+        return new YCbCrImage(wid, hgt, dcPlane(), null, null);
+    }
+
+    /**
+     * Imprints the message and writes the result as png. Each strip is
+     * written before the next one is read. If the message does not fit, the
+     * partially written output file is deleted.
+     *
+     * @param out output filename
+     * @param order imprint strength
+     * @param msg the message
+     * @throws EndOfMediumException if message length exceeds space in the
+     *         medium
+     */
+    public void encode(String out, int order, String msg) throws IOException,
+                    InterruptedException, EndOfMediumException
+    {
+        encode(out, order, msg, null);
+    }
+
+    /**
+     * Imprints the message into carriers in the order given by the key and
+     * writes the result as png, see {@link #encode(String, int, String)}.
+     * With a key the strips are read twice: first to count the carriers of
+     * the whole image, which the {@link KeyedPermutation} is built for, then
+     * to imprint the bits falling to the carriers of each strip.
+     *
+     * @param out output filename
+     * @param order imprint strength
+     * @param msg the message
+     * @param passphrase carrier order key, null for top to bottom order
+     * @throws EndOfMediumException if message length exceeds space in the
+     *         medium
+     */
+    public void encode(String out, int order, String msg, String passphrase)
+                    throws IOException, InterruptedException,
+                    EndOfMediumException
+    {
+        BitBuffer medium = StegCodec.encodeMessage(msg);
+        KeyedPermutation perm = null;
+        int written = 0;
+        boolean done = false;
+
+        if (passphrase != null)
+        {
+            int n = 0;
+
+            for (int y = 0; y < hgt; y += stripRows)
+                n += readStrip(StageEvent.ENCODE, order, y, true)
+                                .getCarrierIndex().size(order);
+            if (n < medium.size())
+                throw new EndOfMediumException("Not enough space in the image");
+            perm = new KeyedPermutation(passphrase, n);
+        }
+
+        PngStripWriter png = new PngStripWriter(new FileOutputStream(out),
+                        wid, hgt);
+
+        try
+        {
+            for (int y = 0; y < hgt; y += stripRows)
+            {
+                YCbCrImage ymg = readStrip(StageEvent.ENCODE, order, y,
+                                DCSteg.LUMA_DELTA);
+                StageEvent ev = new StageEvent(StageEvent.ENCODE,
+                                StageEvent.IMPRINT, order).size(ymg
+                                .getWidth(), ymg.getHeight());
+                int n;
+
+                if (perm != null)
+                {
+                    // written counts carriers of the strips above
+                    n = ymg.getCarrierIndex().size(order);
+                    ev.changeRatio = ymg.imprintMedium(order, medium, perm,
+                                    written);
+                } else
+                {
+                    // strips below the message are not transformed at all
+                    n = (written < medium.size()) ? Math.min(medium.size()
+                                    - written, ymg.getCarrierIndex().size(
+                                    order)) : 0;
+                    ev.changeRatio = ymg.imprintMedium(order, medium,
+                                    written, n);
+                }
+                ev.bits = n;
+                ev.commit();
+                written += n;
+
+                RGBImage rmg = DCSteg.reverse(StageEvent.ENCODE, order, ymg);
+                ev = new StageEvent(StageEvent.ENCODE, StageEvent.WRITE, order)
+                                .size(rmg.getWidth(), rmg.getHeight());
+                png.write(rmg);
+                ev.commit();
+            }
+
+            if (written < medium.size())
+                throw new EndOfMediumException("Not enough space in the image");
+            png.close();
+            done = true;
+        } finally
+        {
+            if (!done)
+            {
+                try
+                {
+                    png.close();
+                } catch (IOException e)
+                {
+                    // the file is deleted anyway
+                }
+                new File(out).delete();
+            }
+        }
+    }
+
+    /**
+     * Decodes message from the image. Strips are read only until the end of
+     * the message.
+     *
+     * @param order imprint strength
+     * @return extracted message
+     */
+    public String decode(int order) throws IOException, InterruptedException
+    {
+        return extract(order, false);
+    }
+
+    /**
+     * Decodes message imprinted with carrier order key. The carriers are
+     * spread over the whole image, so the DC plane of all strips is computed
+     * first, see {@link #dcPlane}.
+     *
+     * @param order imprint strength
+     * @param passphrase carrier order key, null for top to bottom order
+     * @return extracted message
+     */
+    public String decode(int order, String passphrase) throws IOException,
+                    InterruptedException
+    {
+        if (passphrase == null)
+            return decode(order);
+        return DCSteg.extract(wid, hgt, order, planeImage().mediumSource(
+                        order, passphrase), false);
+    }
+
+    /**
+     * Decodes framed message from the image, see
+     * {@link StegCodec#readFrame}. Only the first strip of an unmarked image
+     * is read.
+     *
+     * @param order imprint strength
+     * @return the message, null if there is none
+     */
+    public String detect(int order) throws IOException, InterruptedException
+    {
+        return extract(order, true);
+    }
+
+    /**
+     * Decodes framed message imprinted with carrier order key, see
+     * {@link #decode(int, String)}.
+     *
+     * @param order imprint strength
+     * @param passphrase carrier order key, null for top to bottom order
+     * @return the message, null if there is none
+     */
+    public String detect(int order, String passphrase) throws IOException,
+                    InterruptedException
+    {
+        if (passphrase == null)
+            return detect(order);
+        return DCSteg.extract(wid, hgt, order, planeImage().mediumSource(
+                        order, passphrase), true);
+    }
+
+    /**
+     * Decodes message without knowing the imprint strength, see
+     * {@link DCSteg#decodeAuto(byte[])}. Media of all strengths are read
+     * concurrently from strips shared by them, each strip is read and
+     * transformed once and kept until all media get past it.
+     *
+     * @return the message with its imprint strength, null if there is none
+     */
+    public DecodedMessage decodeAuto() throws IOException,
+                    InterruptedException
+    {
+        return decodeAuto(null);
+    }
+
+    /**
+     * Decodes message imprinted with carrier order key without knowing the
+     * imprint strength. With a key, media of all strengths are read from the
+     * DC plane of the whole image, see {@link #decode(int, String)}.
+     *
+     * @param passphrase carrier order key, null for top to bottom order
+     * @return the message with its imprint strength, null if there is none
+     */
+    public DecodedMessage decodeAuto(String passphrase) throws IOException,
+                    InterruptedException
+    {
+        if (passphrase != null)
+        {
+            YCbCrImage ymg = planeImage();
+            BitSource[] media = new BitSource[CapacityReport.ORDERS];
+
+            for (int i = 0; i < media.length; i++)
+                media[i] = ymg.mediumSource(i, passphrase);
+            return DCSteg.extractAny(wid, hgt, media);
+        }
+
+        SharedStrips shared = new SharedStrips(CapacityReport.ORDERS);
+        BitSource[] media = new BitSource[CapacityReport.ORDERS];
+
+        for (int i = 0; i < media.length; i++)
+            media[i] = new StripMedium(i, shared);
+
+        try
+        {
+            return DCSteg.extractAny(wid, hgt, media);
+        } catch (StripFailure e)
+        {
+            throw e.unwrap();
+        }
+    }
+
+    /**
+     * Decodes message from strips read on demand.
+     *
+     * @param order imprint strength
+     * @param frameOnly whether to accept framed message only
+     */
+    private String extract(int order, boolean frameOnly) throws IOException,
+                    InterruptedException
+    {
+        try
+        {
+            return DCSteg.extract(wid, hgt, order, new StripMedium(order,
+                            null), frameOnly);
+        } catch (StripFailure e)
+        {
+            throw e.unwrap();
+        }
+    }
+
+    /**
+     * Medium of one imprint strength read strip by strip, strips are read
+     * when the medium of the previous one is exhausted. Closing it tells the
+     * shared strips that the reader is finished.
+     */
+    private class StripMedium implements BitSource, Closeable
+    {
+        private final int order;
+
+        /**
+         * Strips shared with media of other strengths, null to read strips
+         * directly.
+         */
+        private final SharedStrips shared;
+
+        /**
+         * Number of the next strip to read and the medium of the current one.
+         */
+        private int next;
+
+        private BitSource strip;
+
+        StripMedium(int order, SharedStrips shared)
+        {
+            this.order = order;
+            this.shared = shared;
+        }
+
+        public boolean next() throws EndOfMediumException
+        {
+            while (true)
+            {
+                if (strip != null)
+                {
+                    try
+                    {
+                        return strip.next();
+                    } catch (EndOfMediumException e)
+                    {
+                        strip = null;
+                    }
+                }
+                if (next * stripRows >= hgt)
+                    throw new EndOfMediumException("End of medium");
+
+                try
+                {
+                    YCbCrImage ymg = (shared != null) ? shared.get(order, next)
+                                    : readStrip(StageEvent.DECODE, order, next
+                                                    * stripRows, true);
+                    strip = ymg.mediumSource(order);
+                } catch (IOException e)
+                {
+                    throw new StripFailure(e);
+                } catch (InterruptedException e)
+                {
+                    throw new StripFailure(e);
+                }
+                next++;
+            }
+        }
+
+        public void close()
+        {
+            if (shared != null)
+                shared.done(order);
+        }
+    }
+
+    /**
+     * Transformed strips shared by several readers. A strip is read on the
+     * first request and dropped when every reader has asked for a later one
+     * (or has finished), readers request strips in ascending order.
+     */
+    private class SharedStrips
+    {
+        /**
+         * Strips by number, null before reading and after dropping.
+         */
+        private final YCbCrImage[] strips = new YCbCrImage[(hgt + stripRows - 1)
+                        / stripRows];
+
+        /**
+         * Strip each reader works on, number of strips when it is finished.
+         */
+        private final int[] current;
+
+        SharedStrips(int readers)
+        {
+            current = new int[readers];
+        }
+
+        /**
+         * Returns strip for reader, reads it if necessary.
+         *
+         * @param reader reader number
+         * @param k strip number
+         */
+        synchronized YCbCrImage get(int reader, int k) throws IOException,
+                        InterruptedException
+        {
+            current[reader] = k;
+            drop();
+            if (strips[k] == null)
+                strips[k] = readStrip(StageEvent.DECODE, -1, k * stripRows,
+                                true);
+            return strips[k];
+        }
+
+        /**
+         * Marks reader as finished.
+         *
+         * @param reader reader number
+         */
+        synchronized void done(int reader)
+        {
+            current[reader] = strips.length;
+            drop();
+        }
+
+        /**
+         * Drops strips no reader needs any more.
+         */
+        private void drop()
+        {
+            int min = strips.length;
+
+            for (int i = 0; i < current.length; i++)
+                min = Math.min(min, current[i]);
+            for (int k = 0; k < min; k++)
+                strips[k] = null;
+        }
+    }
+
+    /**
+     * Carries exception of strip reading out of {@link BitSource#next}.
+     */
+    private static class StripFailure extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        StripFailure(Exception cause)
+        {
+            super(cause);
+        }
+
+        /**
+         * Throws the cause if it was interruption, returns it otherwise.
+         */
+        IOException unwrap() throws InterruptedException
+        {
+            if (getCause() instanceof InterruptedException)
+                throw (InterruptedException) getCause();
+            return (IOException) getCause();
+        }
+    }
+
+    /**
+     * Releases the reader and closes the source.
+     */
+    public void close() throws IOException
+    {
+        reader.dispose();
+        iis.close();
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Part of DCSteg steganographic/watermarking utility.
+ * Distributed under GPL v2 license.
+ */
+package Stegano;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-bounded LRU cache of transformed images: maps SHA-256 hash of the
+ * encoded image file (plus the colour conversion kernel, which affects the
+ * coefficients) to its quantized DC plane and {@link CarrierIndex}. Analysis
+ * and decoding of an image already seen then need neither image decoding nor
+ * transform, encoding still decodes the pixels (they are needed for the
+ * output) but skips colour conversion and forward transform.
+ *
+ * Entries are immutable, images are created from them by
+ * {@link Entry#image}. Size of the shared cache is given by system property
+ * <code>dcsteg.cache</code> in megabytes, default 64, 0 disables caching.
+ *
+ * @author Ondrej Mikle
+ * @version 0.1
+ */
+public class TransformCache
+{
+    /**
+     * Transformed image: DC plane and carrier index.
+     */
+    public static class Entry
+    {
+        private final int wid, hgt;
+
+        /**
+         * Quantized DC coefficients, never modified.
+         */
+        private final double[] dc;
+
+        private final CarrierIndex carriers;
+
+        /**
+         * Creates entry from image after {@link YCbCrImage#forwardTransform},
+         * before its reverse transform. Coefficients changed by imprinting
+         * are taken as they were before, see
+         * {@link YCbCrImage#getOriginalDC}. Lazily transformed image is
+         * transformed to the end.
+         *
+         * @param ymg the image
+         */
+        public Entry(YCbCrImage ymg)
+        {
+            wid = ymg.getWidth();
+            hgt = ymg.getHeight();
+            carriers = ymg.getCarrierIndex();
+            dc = new double[ymg.getBlocksX() * ymg.getBlocksY()];
+            for (int b = 0; b < dc.length; b++)
+                dc[b] = ymg.getOriginalDC(b);
+        }
+
+        /**
+         * Creates transformed image with the DC plane of this entry, see
+         * {@link YCbCrImage#YCbCrImage(int, int, double[], CarrierIndex, RGBImage)}.
+         *
+         * @param source source pixels for encoding (must have the dimensions
+         *        of the entry), null for analysis or decoding
+         */
+        public YCbCrImage image(RGBImage source)
+        {
+            if (source != null
+                && (source.getWidth() != wid || source.getHeight() != hgt))
+                throw new IllegalArgumentException("Image size differs");
+            return new YCbCrImage(wid, hgt, dc.clone(), carriers, source);
+        }
+
+        /**
+         * Returns the capacity report.
+         */
+        public CapacityReport getReport()
+        {
+            return carriers.getReport();
+        }
+
+        public int getWidth()
+        {
+            return wid;
+        }
+
+        public int getHeight()
+        {
+            return hgt;
+        }
+
+        /**
+         * Returns approximate memory taken by the entry in bytes.
+         */
+        long bytes()
+        {
+            long n = 64 + 8L * dc.length;
+
+            for (int i = 0; i < CapacityReport.ORDERS; i++)
+                n += 4L * carriers.size(i);
+            return n;
+        }
+    }
+
+    /**
+     * Shared cache used by {@link DCSteg}.
+     */
+    private static final TransformCache shared = new TransformCache(Long
+                    .getLong("dcsteg.cache", 64).longValue() << 20);
+
+    /**
+     * Entries in access order, the eldest first.
+     */
+    private final LinkedHashMap<String, Entry> map = new LinkedHashMap<String, Entry>(
+                    16, 0.75f, true);
+
+    private final long maxBytes;
+
+    private long bytes;
+
+    /**
+     * Creates empty cache.
+     *
+     * @param maxBytes maximal approximate size of the entries, 0 disables the
+     *        cache
+     */
+    public TransformCache(long maxBytes)
+    {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the shared cache.
+     */
+    public static TransformCache shared()
+    {
+        return shared;
+    }
+
+    /**
+     * Returns true if the cache stores anything at all.
+     */
+    public boolean isEnabled()
+    {
+        return maxBytes > 0;
+    }
+
+    /**
+     * Returns cache key of an encoded image.
+     *
+     * @param data contents of the image file
+     */
+    public static String key(byte[] data)
+    {
+        try
+        {
+            byte[] h = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder s = new StringBuilder(80);
+
+            for (int i = 0; i < h.length; i++)
+                s.append(Character.forDigit((h[i] >> 4) & 0xf, 16)).append(
+                                Character.forDigit(h[i] & 0xf, 16));
+            return s.append('/').append(ColorConversion.get()).toString();
+        } catch (NoSuchAlgorithmException e)
+        {
+            // every JRE has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns entry and marks it as recently used.
+     *
+     * @param key see {@link #key}
+     * @return the entry, null if not cached
+     */
+    public synchronized Entry get(String key)
+    {
+        return map.get(key);
+    }
+
+    /**
+     * Stores entry, evicts least recently used entries to fit the size.
+     * Entries larger than the whole cache are not stored.
+     *
+     * @param key see {@link #key}
+     * @param e the entry
+     */
+    public synchronized void put(String key, Entry e)
+    {
+        long n = e.bytes();
+
+        if (n > maxBytes)
+            return;
+
+        Entry old = map.put(key, e);
+        if (old != null)
+            bytes -= old.bytes();
+        bytes += n;
+
+        Iterator<Map.Entry<String, Entry>> it = map.entrySet().iterator();
+        while (bytes > maxBytes)
+        {
+            bytes -= it.next().getValue().bytes();
+            it.remove();
+        }
+    }
+
+    /**
+     * Returns number of cached entries.
+     */
+    public synchronized int size()
+    {
+        return map.size();
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public synchronized void clear()
+    {
+        map.clear();
+        bytes = 0;
+    }
+}
@@ -0,0 +1,457 @@
+/*
+ * Part of DCSteg steganographic/watermarking utility.
+ * Distributed under GPL v2 license.
+ */
+package Stegano;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Long-running HTTP service built on the JDK's
+ * {@link com.sun.net.httpserver.HttpServer}, bound to the loopback
+ * interface. The image is the POST body of each request:
+ * <ul>
+ * <li><code>/analyze</code> - returns the analysis text (as printed by the
+ * 'a' command)</li>
+ * <li><code>/encode?order=N&amp;message=M</code> - returns the imprinted image
+ * in png format, 422 if the message does not fit</li>
+ * <li><code>/decode?order=N</code> - returns the message as text; with
+ * <code>order=auto</code> all strengths are tried, the one found is returned
+ * in header <code>X-Imprint-Strength</code>, 404 if there is no message</li>
+ * <li><code>/detect?order=N</code> - returns framed message as text (see
+ * {@link StegCodec}), 404 if the image carries none</li>
+ * </ul>
+ * Encode, decode and detect take optional parameter <code>key</code>, the
+ * passphrase giving order of carriers (see {@link KeyedPermutation}).
+ *
+ * The body may also be a sidecar file (see {@link DCSidecar}) for analyze,
+ * decode and detect, as in the command line.
+ *
+ * Requests are served on virtual threads when the JVM has them (looked up
+ * reflectively, so the class runs on older JDKs with a cached thread pool).
+ * Memory is bounded by three limits, given by system properties:
+ * <code>dcsteg.server.maxbytes</code> - maximal request body (413 if
+ * exceeded, default 64 MB), <code>dcsteg.server.maxpixels</code> - maximal
+ * image size checked from the image header before decoding (413, default
+ * {@link StripProcessor#AUTO_PIXELS}) and
+ * <code>dcsteg.server.concurrency</code> - number of requests processed at
+ * once (further requests wait up to {@link #QUEUE_WAIT_MS} and then get 503).
+ * Default concurrency is the number of requests of the largest allowed size
+ * fitting into the maximal heap together ({@link #BYTES_PER_PIXEL} per pixel
+ * plus the body), at least 1 and at most the number of processors.
+ *
+ * @author Ondrej Mikle
+ * @version 0.1
+ */
+public class WatermarkServer
+{
+    /**
+     * How long a request waits for a free processing slot, in milliseconds.
+     */
+    public static final long QUEUE_WAIT_MS = 1000;
+
+    /**
+     * Worst-case heap taken by a request per image pixel: decoded image (4
+     * bytes) and its copy as packed pixels (4), R, G, B planes (6), luma (8),
+     * output image (4) and the png written to memory and copied (6).
+     */
+    public static final long BYTES_PER_PIXEL = 32;
+
+    /**
+     * Limits, see class description.
+     */
+    private final long maxBytes = Long.getLong("dcsteg.server.maxbytes",
+                    64L << 20).longValue();
+
+    private final long maxPixels = Long.getLong("dcsteg.server.maxpixels",
+                    StripProcessor.AUTO_PIXELS).longValue();
+
+    /**
+     * Processing slots.
+     */
+    private final Semaphore slots = new Semaphore(Math.max(1, Integer
+                    .getInteger("dcsteg.server.concurrency",
+                                    defaultConcurrency(maxBytes, maxPixels))
+                    .intValue()));
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    /**
+     * Request rejected with HTTP status.
+     */
+    private static class HttpError extends Exception
+    {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        HttpError(int status, String msg)
+        {
+            super(msg);
+            this.status = status;
+        }
+    }
+
+    /**
+     * Handler of one endpoint, gets the image bytes and query parameters,
+     * returns response body.
+     */
+    private abstract class Endpoint implements HttpHandler
+    {
+        /**
+         * Content type of the response.
+         */
+        private final String type;
+
+        Endpoint(String type)
+        {
+            this.type = type;
+        }
+
+        abstract byte[] process(byte[] image, Map<String, String> params,
+                        HttpExchange ex) throws Exception;
+
+        public void handle(HttpExchange ex) throws IOException
+        {
+            int status = 200;
+            String ctype = type;
+            byte[] body;
+
+            try
+            {
+                if (!ex.getRequestMethod().equals("POST"))
+                    throw new HttpError(405, "POST the image");
+                if (!slots.tryAcquire(QUEUE_WAIT_MS, TimeUnit.MILLISECONDS))
+                    throw new HttpError(503, "Too many requests");
+                try
+                {
+                    body = readBody(ex);
+                    checkPixels(body);
+                    body = process(body, query(ex), ex);
+                } finally
+                {
+                    slots.release();
+                }
+            } catch (HttpError e)
+            {
+                status = e.status;
+                body = text(e.getMessage());
+            } catch (EndOfMediumException e)
+            {
+                status = 422;
+                body = text("Not enough space for the message in the image");
+            } catch (IllegalArgumentException e)
+            {
+                status = 422;
+                body = text(e.getMessage());
+            } catch (IOException e)
+            {
+                status = 400;
+                body = text("Error loading image: " + e.getMessage());
+            } catch (Exception e)
+            {
+                status = 500;
+                body = text(e.toString());
+            } catch (OutOfMemoryError e)
+            {
+                status = 503;
+                body = text(e.toString());
+            }
+            if (status != 200)
+                ctype = "text/plain; charset=UTF-8";
+
+            try
+            {
+                ex.getResponseHeaders().set("Content-Type", ctype);
+                ex.sendResponseHeaders(status, body.length);
+                ex.getResponseBody().write(body);
+            } finally
+            {
+                ex.close();
+            }
+        }
+    }
+
+    /**
+     * Creates the server on loopback interface, does not start it.
+     *
+     * @param port TCP port, 0 for any free port
+     */
+    public WatermarkServer(int port) throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress(InetAddress
+                        .getLoopbackAddress(), port), 0);
+        executor = newExecutor();
+        server.setExecutor(executor);
+
+        server.createContext("/analyze", new Endpoint("text/plain")
+        {
+            byte[] process(byte[] image, Map<String, String> params,
+                            HttpExchange ex) throws Exception
+            {
+                ByteArrayOutputStream text = new ByteArrayOutputStream();
+
+                DCSteg.printReport(DCSteg.analyze(image), new PrintStream(
+                                text, true));
+                return text.toByteArray();
+            }
+        });
+        server.createContext("/encode", new Endpoint("image/png")
+        {
+            byte[] process(byte[] image, Map<String, String> params,
+                            HttpExchange ex) throws Exception
+            {
+                ByteArrayOutputStream png = new ByteArrayOutputStream();
+                String msg = params.get("message");
+
+                if (msg == null)
+                    throw new HttpError(400, "Missing parameter message");
+                DCSteg.encode(image, order(params), msg, params.get("key"))
+                                .Save(png, "png");
+                return png.toByteArray();
+            }
+        });
+        server.createContext("/decode", new Endpoint("text/plain")
+        {
+            byte[] process(byte[] image, Map<String, String> params,
+                            HttpExchange ex) throws Exception
+            {
+                if ("auto".equals(params.get("order")))
+                {
+                    DecodedMessage msg = DCSteg.decodeAuto(image, params
+                                    .get("key"));
+
+                    if (msg == null)
+                        throw new HttpError(404, "No message found");
+                    ex.getResponseHeaders().set("X-Imprint-Strength",
+                                    String.valueOf(msg.getOrder()));
+                    return (msg.getMessage() + "\n").getBytes();
+                }
+                return (DCSteg.decode(image, order(params), params
+                                .get("key")) + "\n").getBytes();
+            }
+        });
+        server.createContext("/detect", new Endpoint("text/plain")
+        {
+            byte[] process(byte[] image, Map<String, String> params,
+                            HttpExchange ex) throws Exception
+            {
+                String msg = DCSteg.detect(image, order(params), params
+                                .get("key"));
+
+                if (msg == null)
+                    throw new HttpError(404, "No framed message");
+                return (msg + "\n").getBytes();
+            }
+        });
+    }
+
+    /**
+     * Starts serving requests.
+     */
+    public void start()
+    {
+        server.start();
+    }
+
+    /**
+     * Stops the server, waits at most given time for requests in progress.
+     *
+     * @param delay seconds to wait
+     */
+    public void stop(int delay)
+    {
+        server.stop(delay);
+        executor.shutdown();
+    }
+
+    /**
+     * Returns the port the server listens on.
+     */
+    public int getPort()
+    {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Returns number of requests of the largest allowed size that fit into
+     * the maximal heap at once, at least 1 and at most the number of
+     * processors.
+     *
+     * @param maxBytes maximal request body
+     * @param maxPixels maximal image size
+     */
+    static int defaultConcurrency(long maxBytes, long maxPixels)
+    {
+        long request = maxPixels * BYTES_PER_PIXEL + maxBytes;
+        long fit = Runtime.getRuntime().maxMemory() / request;
+
+        return (int) Math.max(1, Math.min(fit, Runtime.getRuntime()
+                        .availableProcessors()));
+    }
+
+    /**
+     * Returns virtual-thread-per-task executor if the JVM supports it, cached
+     * thread pool otherwise.
+     */
+    private static ExecutorService newExecutor()
+    {
+        try
+        {
+            return (ExecutorService) Executors.class.getMethod(
+                            "newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e)
+        {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Reads request body, at most {@link #maxBytes}.
+     */
+    private byte[] readBody(HttpExchange ex) throws IOException, HttpError
+    {
+        String len = ex.getRequestHeaders().getFirst("Content-Length");
+
+        try
+        {
+            if (len != null && Long.parseLong(len.trim()) > maxBytes)
+                throw new HttpError(413, "Request larger than " + maxBytes
+                                + " bytes");
+        } catch (NumberFormatException e)
+        {
+            throw new HttpError(400, "Bad Content-Length");
+        }
+
+        InputStream in = ex.getRequestBody();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buf = new byte[1 << 16];
+        int n;
+
+        while ((n = in.read(buf)) > 0)
+        {
+            if (body.size() + n > maxBytes)
+                throw new HttpError(413, "Request larger than " + maxBytes
+                                + " bytes");
+            body.write(buf, 0, n);
+        }
+        return body.toByteArray();
+    }
+
+    /**
+     * Checks image dimensions from its header against {@link #maxPixels}.
+     * Sidecar is accepted as it is, it is not expanded beyond the body.
+     */
+    private void checkPixels(byte[] image) throws IOException, HttpError
+    {
+        if (DCSidecar.isSidecar(image))
+            return;
+
+        ImageInputStream iis = ImageIO
+                        .createImageInputStream(new ByteArrayInputStream(image));
+
+        try
+        {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext())
+                throw new IOException("Unsupported image format");
+
+            ImageReader reader = readers.next();
+            try
+            {
+                reader.setInput(iis, true, true);
+                if ((long) reader.getWidth(0) * reader.getHeight(0) > maxPixels)
+                    throw new HttpError(413, "Image larger than " + maxPixels
+                                    + " pixels");
+            } finally
+            {
+                reader.dispose();
+            }
+        } finally
+        {
+            iis.close();
+        }
+    }
+
+    /**
+     * Parses query string of the request.
+     */
+    private static Map<String, String> query(HttpExchange ex)
+                    throws UnsupportedEncodingException
+    {
+        Map<String, String> params = new HashMap<String, String>();
+        String q = ex.getRequestURI().getRawQuery();
+
+        if (q == null)
+            return params;
+        for (String kv : q.split("&"))
+        {
+            int eq = kv.indexOf('=');
+
+            if (eq < 0)
+                params.put(URLDecoder.decode(kv, "UTF-8"), "");
+            else
+                params.put(URLDecoder.decode(kv.substring(0, eq), "UTF-8"),
+                                URLDecoder.decode(kv.substring(eq + 1), "UTF-8"));
+        }
+        return params;
+    }
+
+    /**
+     * Returns imprint strength parameter.
+     */
+    private static int order(Map<String, String> params) throws HttpError
+    {
+        try
+        {
+            int order = Integer.parseInt(params.get("order"));
+
+            if (order >= 0 && order < CapacityReport.ORDERS)
+                return order;
+        } catch (NumberFormatException e)
+        {
+            // reported below
+        }
+        throw new HttpError(400, "Parameter order must be 0-"
+                        + (CapacityReport.ORDERS - 1));
+    }
+
+    /**
+     * Returns text of error response.
+     */
+    private static byte[] text(String msg)
+    {
+        try
+        {
+            return (msg + "\n").getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+}
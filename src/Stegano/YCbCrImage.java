@@ -1,7 +1,5 @@
 package Stegano;
 
-import java.util.BitSet;
-
 /**
  * Class YCbCrImage serves for manipulating image in YCbCr colorspace.
  * Luma component is split into blockx 8x8 pixels, transformed via DCT,
@@ -13,30 +11,66 @@ import java.util.BitSet;
  */
 public class YCbCrImage
 {
+    /**
+     * How the luma component is transformed before imprinting.
+     */
+    public enum Transform
+    {
+        /**
+         * Every block is DCT-transformed and quantized in place in
+         * {@link YCbCrImage#Y}, all 64 coefficients are computed.
+         */
+        FULL,
+
+        /**
+         * Only the quantized DC coefficient of each block is computed (it is
+         * proportional to the sum of block's luma values) and kept aside,
+         * {@link YCbCrImage#Y} stays in spatial domain. Change of the DC
+         * coefficient is applied back as uniform luma offset over the block.
+         * Since only DC coefficients carry the message, the result is the
+         * same as with {@link #FULL} up to floating point rounding.
+         * Coefficients are computed lazily, block row by block row, as the
+         * medium is read or written, see
+         * {@link YCbCrImage#forwardTransform}.
+         */
+        DC_ONLY
+    }
+
     /**
      * Iterates over all bits of medium where bits of encoded message can be stored.
      * Has sense only if the image has gone through DCT and quantization.
      *
      * Blocks are iterated in top-to-bottom, left-to-right order. Blocks smaller
-     * than 8x8 are skipped.
+     * than 8x8 are skipped. Carrier blocks are looked up in
+     * {@link Stegano.CarrierIndex}, which is extended by transforming further
+     * block rows when the iterator gets past its end. With a key, the n-th
+     * bit is held by the carrier the {@link KeyedPermutation} maps n to, the
+     * image is then transformed completely.
      */
-    private class MediumIterator
+    private class MediumIterator implements BitSource
     {
         int order;
 
-        int bx = 0, by = 0;
+        /**
+         * Order of carriers, null for top to bottom.
+         */
+        KeyedPermutation perm;
 
-        int x = -1, y = 0;
+        /**
+         * Number of the next bit of medium.
+         */
+        int bit = 0;
 
         /**
-	 * Numbers of encountered and changed bits while imprinting. Suitable for statistics.
+         * Carrier blocks of the image, possibly of the rows transformed so
+         * far only.
          */
-        int encountered, changed;
+        CarrierIndex carriers = index();
 
         /**
-         * Current block we iterate through.
+	 * Numbers of encountered and changed bits while imprinting. Suitable for statistics.
          */
-        Block8x8 curblock;
+        int encountered, changed;
 
 	/**
 	 * Creates medium iterator for given bit order.
@@ -45,50 +79,41 @@ public class YCbCrImage
         MediumIterator(int ord)
         {
             order = ord;
-            curblock = subImage(0, 0);
+        }
+
+	/**
+	 * Creates medium iterator for given bit order and carrier order key.
+	 * @param ord order/imprint strength
+	 * @param key passphrase, null for top to bottom order
+	 */
+        MediumIterator(int ord, String key)
+        {
+            order = ord;
+            if (key != null)
+            {
+                carriers = getCarrierIndex();
+                perm = new KeyedPermutation(key, carriers.size(order));
+            }
         }
 
         /**
-	 * Does one iteration and return next index from medium where the next
-	 * bit should be placed.
+	 * Does one iteration and returns index of the next block whose DC
+	 * coefficient should hold the next bit.
 	 * @throws EndOfMediumException
          */
         int iterate() throws EndOfMediumException
         {
-            while (true)
+            //we choose only DC coefficients, they are more stable than any AC coefficients
+            if (perm != null)
             {
-                // walk the rest of 8x8 block
-                for (int cy = y; cy < 8; cy++)
-                {
-                    for (int cx = x + 1; cx < 8; cx++)
-                    {
-                        double num = curblock.data[cy][cx];
-			//we choose only DC coefficients, they are more stable than any AC coefficients
-                        if (cx == 0 && cy == 0 && Block8x8.isOfOrder(num, order))
-                        {
-                            x = cx;
-                            y = cy;
-                            return ((by + y) * wid + (bx + x));
-                        }
-                    }
-                    x = -1; // return to beginning of line
-                    // x = -1, so that we begin with cx=0
-                }
-
-                // end of block, choose next one
-                y = 0;
-                bx += 8;
-                if (bx + 8 > wid) // would we enter block smaller than 8x8?
-                {
-                    bx = 0;
-                    by += 8; // move to next row of blocks
-                    if (by + 8 > hgt) // no space left
-                        throw new EndOfMediumException(
-                                        "Not enough space in the image");
-                }
-
-                curblock = subImage(bx, by);
+                if (bit >= perm.size())
+                    throw new EndOfMediumException("Not enough space in the image");
+                return carriers.block(order, perm.permute(bit++));
             }
+            if (bit >= carriers.size(order) && !findCarrier(order, bit))
+                throw new EndOfMediumException("Not enough space in the image");
+
+            return carriers.block(order, bit++);
         }
 
         /**
@@ -98,14 +123,18 @@ public class YCbCrImage
          */
         boolean read() throws EndOfMediumException
         {
-            int pos = iterate();
-            double val = Y[pos];
+            double val = getDC(iterate());
 
             int retbit = ((int) Math.floor(Math.abs(val)) & (1 << order));
 
             return (retbit != 0);
         }
 
+        public boolean next() throws EndOfMediumException
+        {
+            return read();
+        }
+
         /**
 	 * Writes the next bit in the medium.
 	 * @throws EndOfMediumException when there is no more space left
@@ -113,32 +142,15 @@ public class YCbCrImage
          */
         void write(boolean bit) throws EndOfMediumException
         {
-            int pos = iterate();
-            double val = Y[pos];
-            boolean changebit;
-
-	    // decompose number so that bit operations are nicer
-            int sign = (val >= 0) ? 1 : -1;
-            val = Math.abs(val);
-            int intval = (int) Math.floor(val);
-            double frac = val - intval;
-
-            changebit = ((intval & (1 << order)) != 0) ? true : false;
-            if (changebit != bit)
+            if (writeBit(iterate(), order, bit))
                 changed++; // changed bit statistics
             encountered++;
-
-            intval = (bit) ? intval | (1 << order) : intval & (~(1 << order));
-
-            // decomposed number reconstruction
-            Y[pos] = sign * (intval + frac);
         }
 
 	/** Resets position in the image */
         void reset()
         {
-            bx = -8;
-            by = 0;
+            bit = 0;
             changed = encountered = 0;
         }
 
@@ -149,6 +161,60 @@ public class YCbCrImage
         }
     }
 
+    /**
+     * Writes bit into DC coefficient of block.
+     * @param block carrier block
+     * @param order bit order
+     * @param bit bit to write
+     * @return true if the bit changed
+     */
+    private boolean writeBit(int block, int order, boolean bit)
+    {
+        double val = getDC(block);
+        boolean changebit;
+
+        // decompose number so that bit operations are nicer
+        int sign = (val >= 0) ? 1 : -1;
+        val = Math.abs(val);
+        int intval = (int) Math.floor(val);
+        double frac = val - intval;
+
+        changebit = ((intval & (1 << order)) != 0) ? true : false;
+
+        intval = (bit) ? intval | (1 << order) : intval & (~(1 << order));
+
+        // decomposed number reconstruction
+        setDC(block, sign * (intval + frac));
+        return changebit != bit;
+    }
+
+    /**
+     * Per-thread reusable blocks for transforms: the block being transformed
+     * and scratch block for the DCT engine. Transform loops thus do not
+     * allocate anything.
+     */
+    private static final ThreadLocal<Block8x8[]> workspace = new ThreadLocal<Block8x8[]>()
+    {
+        protected Block8x8[] initialValue()
+        {
+            return new Block8x8[] { new Block8x8(), new Block8x8() };
+        }
+    };
+
+    /**
+     * Number of pixels converted between colorspaces in one parallel work
+     * unit.
+     */
+    static final int CHUNK = 1 << 16;
+
+    /**
+     * Minimal number of block rows transformed at once in lazy
+     * {@link Transform#DC_ONLY} transform. Further steps grow with the part
+     * already transformed, so that rows are processed in parallel batches
+     * while at most half again of the rows needed is transformed.
+     */
+    static final int LAZY_ROWS = 8;
+
     /**
      * Luma component of image.
      */
@@ -174,6 +240,74 @@ public class YCbCrImage
      */
     private int hgt;
 
+    /**
+     * Number of whole 8x8 blocks in a row and in a column. Blocks smaller than
+     * 8x8 on the right and bottom border are never transformed.
+     */
+    private int blocksX, blocksY;
+
+    /**
+     * Transform used by {@link #forwardTransform} and
+     * {@link #reverseTransform}. Default is given by system property
+     * <code>dcsteg.transform</code> (<code>dc</code> or <code>full</code>),
+     * {@link Transform#DC_ONLY} if not set.
+     */
+    private Transform transform = System.getProperty("dcsteg.transform",
+                    "dc").equalsIgnoreCase("full") ? Transform.FULL
+                    : Transform.DC_ONLY;
+
+    /**
+     * Quantized DC coefficient of each block (row by row) in
+     * {@link Transform#DC_ONLY} mode, null while the image is in spatial
+     * domain.
+     */
+    private double[] dc;
+
+    /**
+     * DC coefficients as computed by forward transform, used to find out the
+     * luma offset of each block in reverse transform.
+     */
+    private double[] dcOrig;
+
+    /**
+     * Number of block rows from the top whose DC coefficients are computed in
+     * {@link Transform#DC_ONLY} mode, see {@link #forwardTransform}.
+     */
+    private volatile int transformedRows;
+
+    /**
+     * Number of pixel rows from the top whose luma is computed. In luma-only
+     * mode luma is computed along with the DC coefficients of the rows.
+     */
+    private int lumaRows;
+
+    /**
+     * Source image, null for image not created from RGB image.
+     */
+    private RGBImage source;
+
+    /**
+     * Whether only luma component is computed.
+     */
+    private boolean lumaOnly;
+
+    /**
+     * Bitmap of blocks whose DC coefficient was changed since
+     * {@link #forwardTransform}, bit b % 64 of word b / 64 for block b.
+     */
+    private long[] dirty;
+
+    /**
+     * Luma change of each block made by the last reverse transform, computed
+     * in luma-only mode only.
+     */
+    private double[] lumaOffset;
+
+    /**
+     * Carrier blocks of the transformed image, built on first use.
+     */
+    private CarrierIndex carriers;
+
     /**
      * Creates YCbCrImage from {@link RGBImage} by transferring it into YCbCr
      * colorspace.
@@ -181,23 +315,72 @@ public class YCbCrImage
      */
     public YCbCrImage(RGBImage img)
     {
-        Y = new double[img.R.length];
-        Cb = new double[img.R.length];
-        Cr = new double[img.R.length];
+        this(img, false);
+    }
 
+    /**
+     * Creates YCbCrImage from {@link RGBImage}. In luma-only mode just the
+     * luma component is computed, {@link #Cb} and {@link #Cr} stay null and
+     * the RGB image is kept as source. Since the algorithm changes only luma,
+     * the imprinted image is obtained by adding luma change of each pixel to
+     * all three RGB components of the source (see
+     * {@link RGBImage#addLuma}) and no conversion back from YCbCr is needed.
+     * Luma is then computed by {@link #forwardTransform}, in
+     * {@link Transform#DC_ONLY} mode only for the block rows actually
+     * transformed, so {@link #Y} is not complete until then.
+     * @param img the RGB image
+     * @param lumaOnly whether to compute luma only
+     */
+    public YCbCrImage(RGBImage img, boolean lumaOnly)
+    {
+        Y = new double[img.R.length];
         wid = img.getWidth();
         hgt = img.getHeight();
+        blocksX = wid / 8;
+        blocksY = hgt / 8;
+        source = img;
+        this.lumaOnly = lumaOnly;
 
-        for (int i = 0; i < img.R.length; i++)
+        if (!lumaOnly)
         {
-            int r = img.R[i], g = img.G[i], b = img.B[i];
-
-            Y[i] = 0.299 * r + 0.587 * g + 0.114 * b;
-            Cb[i] = -0.1687 * r - 0.3313 * g + 0.5 * b;
-            Cr[i] = 0.5 * r - 0.4187 * g - 0.0813 * b;
+            Cb = new double[img.R.length];
+            Cr = new double[img.R.length];
+            convert(img, 0);
         }
     }
 
+    /**
+     * Creates image in transformed state from its quantized DC plane, e.g.
+     * one kept by {@link TransformCache}. The image uses
+     * {@link Transform#DC_ONLY} and has no pixel planes; with source it is in
+     * luma-only mode and can be imprinted and transformed back, the change
+     * of each block is then available from {@link #getLumaOffset} for
+     * {@link RGBImage#addLuma}. Without source it can only be analyzed or
+     * read.
+     * @param wid image width
+     * @param hgt image height
+     * @param dc quantized DC coefficients, owned by the image afterwards
+     * @param carriers carrier index of the DC plane, null to build it
+     * @param source the RGB image the plane was computed from, or null
+     */
+    public YCbCrImage(int wid, int hgt, double[] dc, CarrierIndex carriers,
+                    RGBImage source)
+    {
+        this.wid = wid;
+        this.hgt = hgt;
+        blocksX = wid / 8;
+        blocksY = hgt / 8;
+        transform = Transform.DC_ONLY;
+        this.dc = dc;
+        this.carriers = carriers;
+        transformedRows = blocksY;
+        this.source = source;
+        lumaOnly = (source != null);
+        if (source != null)
+            dcOrig = dc.clone();
+        dirty = new long[(dc.length + 63) / 64];
+    }
+
     /**
      * Constructs a new instance.
      */
@@ -205,6 +388,29 @@ public class YCbCrImage
     {
     }
 
+    /**
+     * Converts pixels from given row to the bottom of the image, in parallel
+     * by {@link Stegano.BlockRows}. Only luma is computed in luma-only mode.
+     * @param src the RGB image
+     * @param row first pixel row
+     */
+    private void convert(final RGBImage src, int row)
+    {
+        final ColorConversion cc = ColorConversion.get();
+        final int start = row * wid, size = wid * hgt;
+        final int rows = (size - start + CHUNK - 1) / CHUNK;
+
+        BlockRows.forEach(rows, new BlockRows.Kernel()
+        {
+            public void rows(int from, int to)
+            {
+                cc.toYCbCr(src.R, src.G, src.B, Y, Cb, Cr, start + from
+                                * CHUNK, Math.min(size, start + to * CHUNK));
+            }
+        });
+        lumaRows = hgt;
+    }
+
     /**
      * Reads a block of 8x8 pixels from given position from luma component. If the
      * coords would be out of bounds (e.g. borders of image), fills in zeros.
@@ -216,14 +422,32 @@ public class YCbCrImage
     {
         Block8x8 matrix = new Block8x8();
 
-        for (int i = y, my = 0; i < y + 8; i++, my++)
-            for (int j = x, mx = 0; j < x + 8; j++, mx++)
-                if (i < hgt && j < wid)
-                    matrix.data[my][mx] = Y[i * wid + j];
-
+        subImage(x, y, matrix);
         return matrix;
     }
 
+    /**
+     * Reads a block of 8x8 pixels from given position from luma component
+     * into given block. If the coords would be out of bounds (e.g. borders of
+     * image), fills in zeros.
+     * @param x x coord
+     * @param y y coord
+     * @param matrix block to read into
+     */
+    public void subImage(int x, int y, Block8x8 matrix)
+    {
+        for (int i = y, my = 0; i < y + 8; i++, my += 8)
+        {
+            if (i < hgt && x + 8 <= wid)
+            {
+                System.arraycopy(Y, i * wid + x, matrix.data, my, 8);
+                continue;
+            }
+            for (int j = x, mx = 0; j < x + 8; j++, mx++)
+                matrix.data[my + mx] = (i < hgt && j < wid) ? Y[i * wid + j] : 0;
+        }
+    }
+
     /**
      * Writes given block into luma component of image at given coordinates.
      * @param x x coords
@@ -232,40 +456,273 @@ public class YCbCrImage
      */
     public void update(int x, int y, Block8x8 b)
     {
-
-        for (int i = y, my = 0; i < y + 8; i++, my++)
-            for (int j = x, mx = 0; j < x + 8; j++, mx++)
+        for (int i = y, my = 0; i < y + 8 && i < hgt; i++, my += 8)
+        {
+            if (x + 8 <= wid)
             {
-                if (i < hgt && j < wid)
-                    Y[i * wid + j] = b.data[my][mx];
+                System.arraycopy(b.data, my, Y, i * wid + x, 8);
+                continue;
             }
+            for (int j = x, mx = 0; j < wid; j++, mx++)
+                Y[i * wid + j] = b.data[my + mx];
+        }
     }
 
     /**
      * Iterates over image and computes the analysis. Returns an array where
      * the integer at each index represents how many bits there are available
-     * for the given imprint strength (=index).
-     * Tests DC coefficients in each block.
+     * for the given imprint strength (=index), see {@link #analyze}.
      */
     public int[] analysis()
     {
-        int[] res = new int[32], subres;
+        return analyze().getBits();
+    }
+
+    /**
+     * Computes capacity analysis of the image. The analysis is computed along
+     * with {@link Stegano.CarrierIndex}, each DC coefficient is read once.
+     * Has sense only after {@link #forwardTransform}.
+     */
+    public CapacityReport analyze()
+    {
+        return getCarrierIndex().getReport();
+    }
+
+    /**
+     * Returns true if only luma component was computed, see
+     * {@link #YCbCrImage(RGBImage, boolean)}.
+     */
+    public boolean isLumaOnly()
+    {
+        return lumaOnly;
+    }
+
+    /**
+     * Returns the RGB image this image was created from, null if there is
+     * none.
+     */
+    public RGBImage getSource()
+    {
+        return source;
+    }
+
+    /**
+     * Returns luma change of given block made by imprinting. Has sense only
+     * in luma-only mode after {@link #reverseTransform}, the change is the
+     * same for all pixels of the block (inverse DCT of DC coefficient change).
+     * 
+     * @param block block index (row by row, whole blocks only)
+     */
+    public double getLumaOffset(int block)
+    {
+        return lumaOffset[block];
+    }
+
+    /**
+     * Returns index of carrier blocks of the whole image, builds it if
+     * necessary. Transforms the rest of the image in lazy
+     * {@link Transform#DC_ONLY} mode. Has sense only after
+     * {@link #forwardTransform}.
+     */
+    public synchronized CarrierIndex getCarrierIndex()
+    {
+        completeTransform();
+        return index();
+    }
+
+    /**
+     * Computes all DC coefficients not computed by lazy
+     * {@link Transform#DC_ONLY} transform yet, in parallel. Does nothing in
+     * other modes.
+     */
+    public void completeTransform()
+    {
+        transformRows(blocksY);
+    }
+
+    /**
+     * Returns true if DC coefficients of all blocks are computed, i.e. the
+     * image is not transformed lazily or has been transformed to the end.
+     */
+    public boolean isFullyTransformed()
+    {
+        return dc == null || transformedRows == blocksY;
+    }
+
+    /**
+     * Returns index of carrier blocks as it is, in lazy
+     * {@link Transform#DC_ONLY} mode it covers the rows transformed so far.
+     */
+    private synchronized CarrierIndex index()
+    {
+        if (carriers == null)
+            carriers = new CarrierIndex(this);
+        return carriers;
+    }
+
+    /**
+     * Transforms further block rows until the n-th carrier of given order is
+     * found.
+     * @param order imprint strength
+     * @param n carrier number
+     * @return false if the image has no such carrier
+     */
+    private synchronized boolean findCarrier(int order, int n)
+    {
+        CarrierIndex idx = index();
+
+        while (idx.size(order) <= n)
+        {
+            if (isFullyTransformed())
+                return false;
+            transformRows(nextRows());
+        }
+        return true;
+    }
+
+    /**
+     * Returns block row up to which the next step of lazy transform goes.
+     */
+    private int nextRows()
+    {
+        int rows = transformedRows;
+
+        return Math.min(blocksY, rows + Math.max(LAZY_ROWS, rows / 2));
+    }
+
+    /**
+     * Computes DC coefficients of block rows not computed yet up to given row
+     * and adds them to the carrier index, in lazy {@link Transform#DC_ONLY}
+     * mode. Rows are processed in parallel by {@link Stegano.BlockRows}.
+     * @param to last block row (exclusive)
+     */
+    private synchronized void transformRows(int to)
+    {
+        final int from = transformedRows;
 
-        for (int y = 0; y < hgt; y += 8)
-            for (int x = 0; x < wid; x += 8)
+        if (dc == null || to <= from)
+            return;
+
+        BlockRows.forEach(to - from, new BlockRows.Kernel()
+        {
+            public void rows(int f, int t)
             {
-                /*
-                 * Testing orders 3 and higher is of no use, since
-		 * a) they are way too visible
-		 * b) the space available is very low
-		 * c) we can cross maximal brightness boundary very easily
-                 */
-                for (int i = 0; i < 3; i++)
-                    if (Block8x8.isOfOrder(subImage(x, y).data[0][0], i))
-                        res[i]++;
+                forwardTransformDC(from + f, from + t);
             }
+        });
+        lumaRows = Math.max(lumaRows, to * 8);
+        transformedRows = to;
+        if (carriers != null)
+            carriers.extend(this, to);
+    }
+
+    /**
+     * Makes sure DC coefficient of given block is computed.
+     * @param block block index
+     */
+    private void transformBlock(int block)
+    {
+        if (block >= transformedRows * blocksX)
+            transformRows(Math.max(block / blocksX + 1, nextRows()));
+    }
+
+    /**
+     * Returns number of whole 8x8 blocks in a row.
+     */
+    public int getBlocksX()
+    {
+        return blocksX;
+    }
 
-        return res;
+    /**
+     * Returns number of whole 8x8 blocks in a column.
+     */
+    public int getBlocksY()
+    {
+        return blocksY;
+    }
+
+    /**
+     * Returns quantized DC coefficient of given block. Has sense only after
+     * {@link #forwardTransform}.
+     * 
+     * @param block block index (row by row, whole blocks only)
+     */
+    public double getDC(int block)
+    {
+        if (dc != null)
+        {
+            transformBlock(block);
+            return dc[block];
+        }
+        return Y[(block / blocksX) * 8 * wid + (block % blocksX) * 8];
+    }
+
+    /**
+     * Sets quantized DC coefficient of given block. Has sense only after
+     * {@link #forwardTransform}.
+     * 
+     * @param block block index (row by row, whole blocks only)
+     * @param val new value of the coefficient
+     */
+    public void setDC(int block, double val)
+    {
+        if (getDC(block) != val && dirty != null)
+            dirty[block >>> 6] |= 1L << block;
+
+        if (dc != null)
+            dc[block] = val;
+        else
+            Y[(block / blocksX) * 8 * wid + (block % blocksX) * 8] = val;
+    }
+
+    /**
+     * Returns quantized DC coefficient of given block as computed by
+     * {@link #forwardTransform}, before imprinting changed it. Same as
+     * {@link #getDC} if the image keeps no original coefficients (not in
+     * luma-only or {@link Transform#DC_ONLY} mode). Valid until
+     * {@link #reverseTransform}.
+     * 
+     * @param block block index (row by row, whole blocks only)
+     */
+    public double getOriginalDC(int block)
+    {
+        if (dcOrig == null)
+            return getDC(block);
+        transformBlock(block);
+        return dcOrig[block];
+    }
+
+    /**
+     * Returns true if DC coefficient of given block was changed since
+     * {@link #forwardTransform}, i.e. the block has to be transformed back.
+     * Stays valid after {@link #reverseTransform} until the next forward
+     * transform. True for all blocks of image that was not transformed.
+     * 
+     * @param block block index (row by row, whole blocks only)
+     */
+    public boolean isDirty(int block)
+    {
+        return dirty == null || (dirty[block >>> 6] & (1L << block)) != 0;
+    }
+
+    /**
+     * Returns the transform used by this image.
+     */
+    public Transform getTransform()
+    {
+        return transform;
+    }
+
+    /**
+     * Sets the transform to use. Must not be changed between
+     * {@link #forwardTransform} and {@link #reverseTransform}.
+     * 
+     * @param t the transform
+     */
+    public void setTransform(Transform t)
+    {
+        transform = t;
     }
 
     /**
@@ -291,18 +748,16 @@ public class YCbCrImage
      * @param order bit order/strength of imprint
      * @return encoded message bits
      */
-    public CountedBitSet exportMedium(int order)
+    public BitBuffer exportMedium(int order)
     {
-        CountedBitSet medium = new CountedBitSet();
         MediumIterator it = new MediumIterator(order);
-        int i = 0;
+        BitBuffer medium = new BitBuffer(getCarrierIndex().size(order));
 
         try
         {
             while (true)
             {
-                medium.set(i, it.read());
-                i++;
+                medium.add(it.read());
             }
         } catch (EndOfMediumException e)
         {
@@ -312,6 +767,27 @@ public class YCbCrImage
         return medium;
     }
 
+    /**
+     * Returns source reading bits of the medium one by one, in the order of
+     * {@link #exportMedium}.
+     * @param order bit order/strength of imprint
+     */
+    public BitSource mediumSource(int order)
+    {
+        return new MediumIterator(order);
+    }
+
+    /**
+     * Returns source reading bits of the medium one by one, carriers are
+     * read in the order given by the key, see {@link KeyedPermutation}.
+     * @param order bit order/strength of imprint
+     * @param key passphrase, null for top to bottom order
+     */
+    public BitSource mediumSource(int order, String key)
+    {
+        return new MediumIterator(order, key);
+    }
+
     /**
      * Imprints the bit array into image's DCT coefficients.
      * 
@@ -320,39 +796,287 @@ public class YCbCrImage
      * 
      * @return ratio of changed bits
      */
-    public double imprintMedium(int order, CountedBitSet medium)
+    public double imprintMedium(int order, BitBuffer medium)
                     throws EndOfMediumException
+    {
+        return imprintMedium(order, medium, 0, medium.size());
+    }
+
+    /**
+     * Imprints part of the bit array into image's DCT coefficients, starting
+     * with the first carrier of the image. Used when the medium is split over
+     * several images (e.g. strips of one image).
+     * 
+     * @param order bit order
+     * @param medium bits to write
+     * @param from index of the first bit to write
+     * @param count number of bits to write
+     * 
+     * @return ratio of changed bits
+     */
+    public double imprintMedium(int order, BitBuffer medium, int from,
+                    int count) throws EndOfMediumException
     {
         MediumIterator it = new MediumIterator(order);
 
-        for (int i = 0; i < medium.bits(); i++)
+        for (int i = from; i < from + count; i++)
+            it.write(medium.get(i));
+
+        return it.stats();
+    }
+
+    /**
+     * Imprints the bit array into carriers in the order given by the key,
+     * see {@link KeyedPermutation}.
+     * 
+     * @param order bit order
+     * @param medium bits to write
+     * @param key passphrase, null for top to bottom order
+     * 
+     * @return ratio of changed bits
+     */
+    public double imprintMedium(int order, BitBuffer medium, String key)
+                    throws EndOfMediumException
+    {
+        MediumIterator it = new MediumIterator(order, key);
+
+        for (int i = 0; i < medium.size(); i++)
             it.write(medium.get(i));
 
         return it.stats();
     }
 
     /**
-     * Computes DCT and quantizes the luma component.
+     * Imprints the bits of medium held by carriers of this image when the
+     * image is a part of a larger one (e.g. strip), carriers of the whole
+     * being ordered by the permutation. Carrier c of this image is carrier
+     * first + c of the whole and gets bit perm.inverse(first + c) of the
+     * medium, if the medium has such bit.
+     * 
+     * @param order bit order
+     * @param medium bits to write
+     * @param perm order of carriers of the whole image
+     * @param first number of carriers in the preceding parts
+     * 
+     * @return ratio of changed bits
+     */
+    public double imprintMedium(int order, BitBuffer medium,
+                    KeyedPermutation perm, int first)
+    {
+        CarrierIndex idx = getCarrierIndex();
+        int changed = 0, encountered = 0;
+
+        for (int c = 0; c < idx.size(order); c++)
+        {
+            int i = perm.inverse(first + c);
+
+            if (i >= medium.size())
+                continue;
+            if (writeBit(idx.block(order, c), order, medium.get(i)))
+                changed++;
+            encountered++;
+        }
+
+        return (encountered > 0) ? (double) changed / encountered : 0;
+    }
+
+    /**
+     * Computes DCT and quantizes the luma component. Block rows are processed
+     * in parallel by {@link Stegano.BlockRows}.
+     *
+     * {@link Transform#DC_ONLY} transform is lazy: nothing is computed here,
+     * DC coefficients (and luma in luma-only mode) of block rows are computed
+     * once, in batches of rows from the top, when a block of them is first
+     * needed - typically when the medium iterator gets past the carriers
+     * found so far. Imprinting or reading a short message thus transforms
+     * only the top of the image, up to the last block carrying it. Analysis,
+     * {@link #getCarrierIndex} and {@link #exportMedium} transform the whole
+     * image.
      */
-    public void forwardTransform()
+    public synchronized void forwardTransform()
     {
-        // y < hgt & ~7 znamena aby netransformovalo okrajove bloky nezarovnane
-        // na 8
-        for (int y = 0; y < (hgt & ~7); y += 8)
-            for (int x = 0; x < (wid & ~7); x += 8)
-                update(x, y, subImage(x, y).forwardTransform());
+        carriers = null;
+        dirty = new long[(blocksX * blocksY + 63) / 64];
+        if (transform == Transform.DC_ONLY)
+        {
+            dc = new double[blocksX * blocksY];
+            dcOrig = new double[dc.length];
+            transformedRows = 0;
+            carriers = new CarrierIndex(blocksY);
+            return;
+        }
+
+        if (lumaRows < hgt)
+            convert(source, lumaRows);
+
+        BlockRows.forEach(blocksY, new BlockRows.Kernel()
+        {
+            public void rows(int from, int to)
+            {
+                forwardTransform(from, to);
+            }
+        });
+
+        if (lumaOnly)
+        {
+            // remember DC coefficients to compute luma offsets later
+            dcOrig = new double[blocksX * blocksY];
+            for (int b = 0; b < dcOrig.length; b++)
+                dcOrig[b] = getDC(b);
+        }
     }
 
     /**
-     * Computes dequantization and inverse DCT of luma component.
+     * Computes DCT and quantizes blocks in given block rows.
+     * @param from first block row
+     * @param to last block row (exclusive)
      */
-    public void reverseTransform()
+    private void forwardTransform(int from, int to)
     {
-        // y < hgt & ~7 znamena aby netransformovalo okrajove bloky nezarovnane
-        // na 8
-        for (int y = 0; y < (hgt & ~7); y += 8)
-            for (int x = 0; x < (wid & ~7); x += 8)
-                update(x, y, subImage(x, y).reverseTransform());
+        // okrajove bloky nezarovnane na 8 se netransformuji
+        Block8x8[] ws = workspace.get();
+
+        for (int y = from * 8; y < to * 8; y += 8)
+            for (int x = 0; x < blocksX * 8; x += 8)
+            {
+                subImage(x, y, ws[0]);
+                ws[0].forwardTransform(ws[1]);
+                update(x, y, ws[0]);
+            }
     }
-}
 
+    /**
+     * Computes quantized DC coefficients of blocks in given block rows, and
+     * luma of the rows if it is not computed yet. DC of orthonormal DCT is
+     * (sum - 64*128) / 8, where sum is the sum of block's luma values.
+     * @param from first block row
+     * @param to last block row (exclusive)
+     */
+    private void forwardTransformDC(int from, int to)
+    {
+        double q = Block8x8.qt50.get(0, 0);
+
+        if (lumaRows < to * 8)
+            ColorConversion.get().toYCbCr(source.R, source.G, source.B, Y,
+                            null, null, Math.max(lumaRows, from * 8) * wid,
+                            to * 8 * wid);
+
+        for (int by = from; by < to; by++)
+            for (int bx = 0; bx < blocksX; bx++)
+            {
+                double sum = 0;
+
+                for (int i = by * 8; i < by * 8 + 8; i++)
+                    for (int j = i * wid + bx * 8, e = j + 8; j < e; j++)
+                        sum += Y[j];
+
+                int b = by * blocksX + bx;
+                dc[b] = dcOrig[b] = (sum / 8 - 8 * 128) / q;
+            }
+    }
+
+    /**
+     * Applies changes of DC coefficients in given block rows as luma offsets.
+     * Dequantized DC change d of a block adds d / 8 to each of its pixels.
+     * @param from first block row
+     * @param to last block row (exclusive)
+     */
+    private void reverseTransformDC(int from, int to)
+    {
+        double q = Block8x8.qt50.get(0, 0);
+
+        for (int by = from; by < to; by++)
+            for (int bx = 0; bx < blocksX; bx++)
+            {
+                int b = by * blocksX + bx;
+
+                if (!isDirty(b))
+                    continue;
+
+                double offset = (dc[b] - dcOrig[b]) * q / 8;
+                for (int i = by * 8; i < by * 8 + 8; i++)
+                    for (int j = i * wid + bx * 8, e = j + 8; j < e; j++)
+                        Y[j] += offset;
+            }
+    }
+
+    /**
+     * Computes dequantization and inverse DCT of luma component. Block rows
+     * are processed in parallel by {@link Stegano.BlockRows}.
+     *
+     * Only blocks changed by imprinting (see {@link #isDirty}) are
+     * transformed back when the image has its source RGB image, pixels of the
+     * other blocks are then taken from the source as they are (see
+     * {@link RGBImage#RGBImage(YCbCrImage)}). In {@link Transform#FULL} mode
+     * {@link #Y} of those blocks is converted from the source again, so that
+     * it holds luma of all blocks afterwards.
+     */
+    public synchronized void reverseTransform()
+    {
+        carriers = null;
+        if (lumaOnly)
+        {
+            double q = Block8x8.qt50.get(0, 0);
+
+            lumaOffset = new double[blocksX * blocksY];
+            for (int b = 0; b < lumaOffset.length; b++)
+                if (isDirty(b))
+                    lumaOffset[b] = (getDC(b) - dcOrig[b]) * q / 8;
+        }
+
+        if (transform == Transform.DC_ONLY)
+        {
+            // image created from DC plane has no luma to update
+            if (Y != null)
+                BlockRows.forEach(transformedRows, new BlockRows.Kernel()
+                {
+                    public void rows(int from, int to)
+                    {
+                        reverseTransformDC(from, to);
+                    }
+                });
+            dc = dcOrig = null;
+            return;
+        }
+
+        BlockRows.forEach(blocksY, new BlockRows.Kernel()
+        {
+            public void rows(int from, int to)
+            {
+                reverseTransform(from, to);
+            }
+        });
+        dcOrig = null;
+    }
+
+    /**
+     * Computes dequantization and inverse DCT of blocks in given block rows.
+     * @param from first block row
+     * @param to last block row (exclusive)
+     */
+    private void reverseTransform(int from, int to)
+    {
+        // okrajove bloky nezarovnane na 8 se netransformuji
+        Block8x8[] ws = workspace.get();
+
+        for (int y = from * 8; y < to * 8; y += 8)
+            for (int x = 0, clean = 0; x <= blocksX * 8; x += 8)
+            {
+                if (x < blocksX * 8 && source != null
+                    && !isDirty((y / 8) * blocksX + x / 8))
+                    continue;
+                // clean blocks left of x get their luma back from source
+                if (clean < x)
+                    for (int i = y; i < y + 8; i++)
+                        ColorConversion.get().toYCbCr(source.R, source.G,
+                                        source.B, Y, null, null, i * wid
+                                                        + clean, i * wid + x);
+                clean = x + 8;
+                if (x == blocksX * 8)
+                    break;
+                subImage(x, y, ws[0]);
+                ws[0].reverseTransform(ws[1]);
+                update(x, y, ws[0]);
+            }
+    }
+}